@@ -0,0 +1,73 @@
+package org.smithe65.jlox;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// Scans, parses and resolves many files at once. Files share nothing during compilation, so
+// they are split across a fork-join pool, each collecting its errors in its own reporter.
+public class BatchCompiler {
+    record Result(Path path, Module module, List<String> errors) {}
+
+    private final ForkJoinPool pool;
+
+    BatchCompiler() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    BatchCompiler(final ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // Results are in the same order as the paths.
+    List<Result> compile(List<Path> paths) {
+        if (paths.isEmpty()) return List.of();
+        return pool.invoke(new CompileTask(paths));
+    }
+
+    static List<Result> compileSequentially(List<Path> paths) {
+        List<Result> results = new ArrayList<>();
+        for (Path path : paths) {
+            results.add(compile(path));
+        }
+
+        return results;
+    }
+
+    static Result compile(Path path) {
+        Path normalized = path.toAbsolutePath().normalize();
+        ErrorReporter reporter = new ErrorReporter();
+
+        try {
+            Module module = Module.compile(normalized, reporter);
+            return new Result(normalized, module, reporter.errors());
+        } catch (IOException e) {
+            return new Result(normalized, null, List.of("Can't read file: " + e.getMessage()));
+        }
+    }
+
+    private static class CompileTask extends RecursiveTask<List<Result>> {
+        private final List<Path> paths;
+
+        CompileTask(final List<Path> paths) {
+            this.paths = paths;
+        }
+
+        @Override
+        protected List<Result> compute() {
+            if (paths.size() == 1) return List.of(BatchCompiler.compile(paths.get(0)));
+
+            int middle = paths.size() / 2;
+            CompileTask left = new CompileTask(paths.subList(0, middle));
+            CompileTask right = new CompileTask(paths.subList(middle, paths.size()));
+            left.fork();
+
+            List<Result> results = new ArrayList<>(right.compute());
+            results.addAll(0, left.join());
+            return results;
+        }
+    }
+}
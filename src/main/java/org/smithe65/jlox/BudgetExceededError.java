@@ -0,0 +1,8 @@
+package org.smithe65.jlox;
+
+// Raised when a script runs past its step budget or time limit.
+public class BudgetExceededError extends RuntimeError {
+    public BudgetExceededError(Token token, String message) {
+        super(token, message);
+    }
+}
@@ -0,0 +1,25 @@
+package org.smithe65.jlox;
+
+// What a call site learned in one interpreter the last time it ran there: the callee it saw,
+// already checked to be callable with the site's argument count. The site's argument count never
+// changes, so seeing the same callee again means the checks can be skipped.
+//
+// Each interpreter keeps its own caches, so nothing here is shared between threads, and a
+// cached callee lives only as long as the interpreter that called it.
+final class CallSiteCache {
+    // Sites that keep seeing new callees stop caching instead of re-checking on every call.
+    static final int MAX_MISSES = 8;
+
+    private LoxCallable callee;
+    private int misses = 0;
+
+    boolean hit(Object function) {
+        return function != null && function == callee;
+    }
+
+    LoxCallable missed(LoxCallable function) {
+        if (misses < MAX_MISSES) misses++;
+        callee = misses < MAX_MISSES ? function : null;
+        return function;
+    }
+}
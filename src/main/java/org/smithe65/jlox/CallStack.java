@@ -0,0 +1,55 @@
+package org.smithe65.jlox;
+
+import java.util.Arrays;
+
+// The names of the Lox functions currently executing, innermost last. Functions only push frames
+// once something has asked for them with track(), so an unobserved interpreter pays nothing for it;
+// calls already running at that point are not on the stack.
+//
+// It is only written by the interpreter thread. Other threads see an up-to-date depth, but may
+// read frames that are stale or torn, so a snapshot is only a best-effort view.
+public class CallStack {
+    private String[] frames = new String[64];
+    private volatile int depth;
+    private volatile boolean tracked;
+
+    void track() {
+        tracked = true;
+    }
+
+    boolean isTracked() {
+        return tracked;
+    }
+
+    void push(String name) {
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth * 2);
+        }
+
+        frames[depth++] = name;
+    }
+
+    void replace(String name) {
+        frames[depth - 1] = name;
+    }
+
+    void pop() {
+        frames[--depth] = null;
+    }
+
+    // Drops frames left behind by calls that didn't get to pop them.
+    void clear() {
+        Arrays.fill(frames, 0, Math.min(depth, frames.length), null);
+        depth = 0;
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    String[] snapshot() {
+        String[] current = frames;
+        int size = Math.min(depth, current.length);
+        return Arrays.copyOf(current, size);
+    }
+}
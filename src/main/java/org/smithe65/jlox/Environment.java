@@ -29,8 +29,8 @@ public class Environment {
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
-    public void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    public void assignAt(int distance, String name, Object value) {
+        ancestor(distance).values.put(name, value);
     }
 
     public void define(String name, Object value) {
@@ -0,0 +1,59 @@
+package org.smithe65.jlox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// Collects compile errors for one unit of work. Every scanner, parser and resolver reports
+// through its own instance, so separate files can be compiled on separate threads.
+public class ErrorReporter {
+    private final PrintStream out;
+    private final List<String> errors = new ArrayList<>();
+
+    // Errors are only collected, for callers that print them later.
+    ErrorReporter() {
+        this(null);
+    }
+
+    ErrorReporter(final PrintStream out) {
+        this.out = out;
+    }
+
+    void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            report(token.line, " at end ", message);
+        } else {
+            report(token.line, " at '" + token.lexeme + "'", message);
+        }
+    }
+
+    // Takes on errors collected by another reporter, such as one used on a worker thread.
+    synchronized void addAll(List<String> others) {
+        for (String error : others) {
+            errors.add(error);
+            if (out != null) out.println(error);
+        }
+    }
+
+    synchronized boolean hadError() {
+        return !errors.isEmpty();
+    }
+
+    synchronized List<String> errors() {
+        return List.copyOf(errors);
+    }
+
+    synchronized void reset() {
+        errors.clear();
+    }
+
+    private synchronized void report(int line, String where, String message) {
+        String error = "[line " + line + "] " + where + ": " + message;
+        errors.add(error);
+        if (out != null) out.println(error);
+    }
+}
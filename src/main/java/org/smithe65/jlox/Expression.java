@@ -2,21 +2,39 @@ package org.smithe65.jlox;
 
 import java.util.List;
 
-public abstract class Expression {
+public abstract sealed class Expression {
   public interface Visitor<R> {
+    R visitArrayExpression(Array expression);
     R visitAssignExpression(Assign expression);
     R visitBinaryExpression(Binary expression);
     R visitCallExpression(Call expression);
     R visitGetExpression(Get expression);
     R visitGroupingExpression(Grouping expression);
+    R visitIndexExpression(Index expression);
+    R visitIndexSetExpression(IndexSet expression);
     R visitLiteralExpression(Literal expression);
     R visitLogicalExpression(Logical expression);
+    R visitMapExpression(Map expression);
     R visitSetExpression(Set expression);
     R visitThisExpression(This expression);
     R visitUnaryExpression(Unary expression);
     R visitVariableExpression(Variable expression);
   }
-  public static class Assign extends Expression {
+  public static final class Array extends Expression {
+    Array(Token bracket, List<Expression> elements) {
+      this.bracket = bracket;
+      this.elements = elements;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitArrayExpression(this);
+    }
+
+    final Token bracket;
+    final List<Expression> elements;
+  }
+  public static final class Assign extends Expression {
     Assign(Token name, Expression value) {
       this.name = name;
       this.value = value;
@@ -29,8 +47,10 @@ public abstract class Expression {
 
     final Token name;
     final Expression value;
+    int depth = -1;
+    volatile long binding = 0;
   }
-  public static class Binary extends Expression {
+  public static final class Binary extends Expression {
     Binary(Expression left, Token operator, Expression right) {
       this.left = left;
       this.operator = operator;
@@ -46,7 +66,7 @@ public abstract class Expression {
     final Token operator;
     final Expression right;
   }
-  public static class Call extends Expression {
+  public static final class Call extends Expression {
     Call(Expression callee, Token paren, List<Expression> arguments) {
       this.callee = callee;
       this.paren = paren;
@@ -61,8 +81,10 @@ public abstract class Expression {
     final Expression callee;
     final Token paren;
     final List<Expression> arguments;
+    boolean tailCall = false;
+    volatile long site = 0;
   }
-  public static class Get extends Expression {
+  public static final class Get extends Expression {
     Get(Expression object, Token name) {
       this.object = object;
       this.name = name;
@@ -76,7 +98,7 @@ public abstract class Expression {
     final Expression object;
     final Token name;
   }
-  public static class Grouping extends Expression {
+  public static final class Grouping extends Expression {
     Grouping(Expression expression) {
       this.expression = expression;
     }
@@ -88,7 +110,41 @@ public abstract class Expression {
 
     final Expression expression;
   }
-  public static class Literal extends Expression {
+  public static final class Index extends Expression {
+    Index(Expression object, Token bracket, Expression index) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIndexExpression(this);
+    }
+
+    final Expression object;
+    final Token bracket;
+    final Expression index;
+  }
+  public static final class IndexSet extends Expression {
+    IndexSet(Expression object, Token bracket, Expression index, Expression value) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+      this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIndexSetExpression(this);
+    }
+
+    final Expression object;
+    final Token bracket;
+    final Expression index;
+    final Expression value;
+  }
+  public static final class Literal extends Expression {
     Literal(Object value) {
       this.value = value;
     }
@@ -100,7 +156,7 @@ public abstract class Expression {
 
     final Object value;
   }
-  public static class Logical extends Expression {
+  public static final class Logical extends Expression {
     Logical(Expression left, Token operator, Expression right) {
       this.left = left;
       this.operator = operator;
@@ -116,7 +172,23 @@ public abstract class Expression {
     final Token operator;
     final Expression right;
   }
-  public static class Set extends Expression {
+  public static final class Map extends Expression {
+    Map(Token brace, List<Expression> keys, List<Expression> values) {
+      this.brace = brace;
+      this.keys = keys;
+      this.values = values;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitMapExpression(this);
+    }
+
+    final Token brace;
+    final List<Expression> keys;
+    final List<Expression> values;
+  }
+  public static final class Set extends Expression {
     Set(Expression object, Token name, Expression value) {
       this.object = object;
       this.name = name;
@@ -132,7 +204,7 @@ public abstract class Expression {
     final Token name;
     final Expression value;
   }
-  public static class This extends Expression {
+  public static final class This extends Expression {
     This(Token keyword) {
       this.keyword = keyword;
     }
@@ -143,8 +215,9 @@ public abstract class Expression {
     }
 
     final Token keyword;
+    int depth = -1;
   }
-  public static class Unary extends Expression {
+  public static final class Unary extends Expression {
     Unary(Token operator, Expression right) {
       this.operator = operator;
       this.right = right;
@@ -158,7 +231,7 @@ public abstract class Expression {
     final Token operator;
     final Expression right;
   }
-  public static class Variable extends Expression {
+  public static final class Variable extends Expression {
     Variable(Token name) {
       this.name = name;
     }
@@ -169,6 +242,8 @@ public abstract class Expression {
     }
 
     final Token name;
+    int depth = -1;
+    volatile long binding = 0;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
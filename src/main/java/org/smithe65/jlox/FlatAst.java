@@ -0,0 +1,422 @@
+package org.smithe65.jlox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A statement list flattened into parallel arrays. Node i has kind kinds[i], source line
+// lines[i] and up to three int operands a[i], b[i], c[i]: child node indices, scope depths,
+// global slots, operator types, indices into the constant, function or call site tables, or a
+// start and count in the children array for nodes with variable numbers of children. Children
+// are laid out before their parents, so a subtree is contiguous.
+//
+// The constant table only holds literal values and interned names, and nothing here points back
+// into the tree, so the tree can be dropped once it's compiled. The few paths that need a token,
+// mostly to report an error, rebuild one from the node. Global slots and call site caches belong
+// to the interpreter the code was compiled for.
+public class FlatAst {
+    // Expressions.
+    static final int LITERAL = 0;           // a: constant
+    static final int LOCAL = 1;             // a: depth, b: constant name
+    static final int GLOBAL = 2;            // a: slot, b: constant name
+    static final int ASSIGN_LOCAL = 3;      // a: depth, b: constant name, c: value
+    static final int ASSIGN_GLOBAL = 4;     // a: slot, b: constant name, c: value
+    static final int BINARY = 5;            // a: left, b: right, c: operator type
+    static final int UNARY = 6;             // a: operand, c: operator type
+    static final int AND = 7;               // a: left, b: right
+    static final int OR = 8;                // a: left, b: right
+    static final int EQUAL = 9;             // a: left, b: right
+    static final int NOT_EQUAL = 10;        // a: left, b: right
+    static final int CALL = 11;             // a: call site, b/c: callee then arguments
+    static final int GET = 12;              // a: object, b: constant name
+    static final int SET = 13;              // a: object, b: constant name, c: value
+    static final int INDEX = 14;            // a: object, b: index
+    static final int INDEX_SET = 15;        // a: object, b: index, c: value
+    static final int ARRAY = 16;            // b/c: elements
+    static final int MAP = 17;              // b/c: keys and values, alternating
+
+    // Statements.
+    static final int EXPRESSION = 18;       // a: expression
+    static final int PRINT = 19;            // a: expression
+    static final int VAR = 20;              // a: initializer or -1, b: constant name
+    static final int BLOCK = 21;            // b/c: statements
+    static final int IF = 22;               // a: condition, b: then, c: else or -1
+    static final int WHILE = 23;            // a: condition, b: body
+    static final int RETURN = 24;           // a: value or -1
+    static final int TAIL_RETURN = 25;      // a: call site, b/c: callee then arguments
+    static final int FUNCTION = 26;         // a: function
+    static final int CLASS = 27;            // a: constant name, b/c: methods, as functions
+    static final int IMPORT = 28;           // a: constant path
+
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    final int[] kinds;
+    final int[] lines;
+    final int[] a;
+    final int[] b;
+    final int[] c;
+    final int[] children;
+    final Object[] constants;
+    final Function[] functions;
+    final CallSiteCache[] sites;
+    final int rootStart;
+    final int rootCount;
+
+    private FlatAst(Builder builder, int rootStart, int rootCount) {
+        this.kinds = Arrays.copyOf(builder.kinds, builder.nodes);
+        this.lines = Arrays.copyOf(builder.lines, builder.nodes);
+        this.a = Arrays.copyOf(builder.a, builder.nodes);
+        this.b = Arrays.copyOf(builder.b, builder.nodes);
+        this.c = Arrays.copyOf(builder.c, builder.nodes);
+        this.children = Arrays.copyOf(builder.children, builder.childCount);
+        this.constants = builder.constants.toArray();
+        this.functions = builder.functions.toArray(new Function[0]);
+        this.sites = new CallSiteCache[builder.sites];
+        for (int i = 0; i < sites.length; i++) {
+            sites[i] = new CallSiteCache();
+        }
+
+        this.rootStart = rootStart;
+        this.rootCount = rootCount;
+    }
+
+    // Global slots and memoization come from the given interpreter, so the code only runs there.
+    static FlatAst compile(List<Statement> statements, Interpreter interpreter) {
+        Builder builder = new Builder(interpreter);
+        int[] root = builder.statements(statements);
+        return new FlatAst(builder, builder.list(root), root.length);
+    }
+
+    static TokenType operator(int type) {
+        return TOKEN_TYPES[type];
+    }
+
+    // A stand-in for the token the tree had at this node, good enough for errors and budgets.
+    Token token(int node) {
+        int line = lines[node];
+        return switch (kinds[node]) {
+            case GLOBAL, ASSIGN_LOCAL, ASSIGN_GLOBAL, GET, SET ->
+                    new Token(TokenType.IDENTIFIER, (String)constants[b[node]], null, line);
+            case CLASS -> new Token(TokenType.IDENTIFIER, (String)constants[a[node]], null, line);
+            case BINARY, UNARY -> new Token(TOKEN_TYPES[c[node]], "", null, line);
+            case CALL, TAIL_RETURN -> new Token(TokenType.RIGHT_PARENTHESIS, ")", null, line);
+            case INDEX, INDEX_SET, ARRAY -> new Token(TokenType.LEFT_BRACKET, "[", null, line);
+            case MAP -> new Token(TokenType.LEFT_BRACE, "{", null, line);
+            case WHILE -> new Token(TokenType.WHILE, "while", null, line);
+            case IMPORT -> new Token(TokenType.STRING, "", constants[a[node]], line);
+            default -> new Token(TokenType.EOF, "", null, line);
+        };
+    }
+
+    // A function declaration, shared by every closure made from it. The body is compiled on the
+    // first call, which is also when a lazily parsed body gets parsed, and its tree is let go.
+    static final class Function {
+        final String name;
+        final String[] parameters;
+        final boolean pure;
+        private List<Statement> source;
+        private FlatAst body;
+
+        Function(String name, String[] parameters, boolean pure, List<Statement> source) {
+            this.name = name;
+            this.parameters = parameters;
+            this.pure = pure;
+            this.source = source;
+        }
+
+        FlatAst body(Interpreter interpreter) {
+            if (body == null) {
+                body = compile(source, interpreter);
+                source = null;
+            }
+
+            return body;
+        }
+    }
+
+    private static class Builder implements Expression.Visitor<Integer>, Statement.Visitor<Integer> {
+        private int[] kinds = new int[64];
+        private int[] lines = new int[64];
+        private int[] a = new int[64];
+        private int[] b = new int[64];
+        private int[] c = new int[64];
+        private int nodes = 0;
+        private int[] children = new int[64];
+        private int childCount = 0;
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> constantIndexes = new HashMap<>();
+        private final List<Function> functions = new ArrayList<>();
+        private int sites = 0;
+        private final Interpreter interpreter;
+
+        Builder(final Interpreter interpreter) {
+            this.interpreter = interpreter;
+        }
+
+        private int node(int kind, int line, int first, int second, int third) {
+            if (nodes == kinds.length) {
+                int length = nodes * 2;
+                kinds = Arrays.copyOf(kinds, length);
+                lines = Arrays.copyOf(lines, length);
+                a = Arrays.copyOf(a, length);
+                b = Arrays.copyOf(b, length);
+                c = Arrays.copyOf(c, length);
+            }
+
+            kinds[nodes] = kind;
+            lines[nodes] = line;
+            a[nodes] = first;
+            b[nodes] = second;
+            c[nodes] = third;
+            return nodes++;
+        }
+
+        // Literals are strings, numbers, booleans or nil. Equal ones share an entry, and strings
+        // are interned so every body that uses a name shares one copy of it.
+        private int constant(Object value) {
+            Object key = value instanceof String string ? string.intern() : value;
+            Integer index = constantIndexes.get(key);
+            if (index != null) return index;
+
+            constants.add(key);
+            constantIndexes.put(key, constants.size() - 1);
+            return constants.size() - 1;
+        }
+
+        private int function(Statement.Function declaration) {
+            String[] parameters = new String[declaration.parameters.size()];
+            for (int i = 0; i < parameters.length; i++) {
+                parameters[i] = declaration.parameters.get(i).lexeme.intern();
+            }
+
+            functions.add(new Function(declaration.name.lexeme.intern(), parameters,
+                    interpreter.isMemoizable(declaration), declaration.body));
+            return functions.size() - 1;
+        }
+
+        // Children of one node are compiled first, then copied into one contiguous run.
+        private int list(int[] nodes) {
+            while (childCount + nodes.length > children.length) {
+                children = Arrays.copyOf(children, children.length * 2);
+            }
+
+            int start = childCount;
+            System.arraycopy(nodes, 0, children, start, nodes.length);
+            childCount += nodes.length;
+            return start;
+        }
+
+        private int[] statements(List<Statement> statements) {
+            int[] nodes = new int[statements.size()];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = statements.get(i).accept(this);
+            }
+
+            return nodes;
+        }
+
+        private int[] call(Expression.Call call) {
+            int[] nodes = new int[call.arguments.size() + 1];
+            nodes[0] = call.callee.accept(this);
+            for (int i = 1; i < nodes.length; i++) {
+                nodes[i] = call.arguments.get(i - 1).accept(this);
+            }
+
+            return nodes;
+        }
+
+        private int slot(Token name) {
+            return interpreter.globals.slotFor(name.lexeme);
+        }
+
+        @Override
+        public Integer visitArrayExpression(Expression.Array expression) {
+            int[] nodes = new int[expression.elements.size()];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = expression.elements.get(i).accept(this);
+            }
+
+            return node(ARRAY, expression.bracket.line, 0, list(nodes), nodes.length);
+        }
+
+        @Override
+        public Integer visitAssignExpression(Expression.Assign expression) {
+            int value = expression.value.accept(this);
+            Token name = expression.name;
+            if (expression.depth >= 0) {
+                return node(ASSIGN_LOCAL, name.line, expression.depth, constant(name.lexeme), value);
+            }
+
+            return node(ASSIGN_GLOBAL, name.line, slot(name), constant(name.lexeme), value);
+        }
+
+        @Override
+        public Integer visitBinaryExpression(Expression.Binary expression) {
+            int left = expression.left.accept(this);
+            int right = expression.right.accept(this);
+            Token operator = expression.operator;
+
+            return switch (operator.type) {
+                case EQUAL_EQUAL -> node(EQUAL, operator.line, left, right, 0);
+                case BANG_EQUAL -> node(NOT_EQUAL, operator.line, left, right, 0);
+                default -> node(BINARY, operator.line, left, right, operator.type.ordinal());
+            };
+        }
+
+        @Override
+        public Integer visitCallExpression(Expression.Call expression) {
+            int[] nodes = call(expression);
+            return node(CALL, expression.paren.line, sites++, list(nodes), nodes.length);
+        }
+
+        @Override
+        public Integer visitGetExpression(Expression.Get expression) {
+            int object = expression.object.accept(this);
+            return node(GET, expression.name.line, object, constant(expression.name.lexeme), 0);
+        }
+
+        @Override
+        public Integer visitGroupingExpression(Expression.Grouping expression) {
+            return expression.expression.accept(this);
+        }
+
+        @Override
+        public Integer visitIndexExpression(Expression.Index expression) {
+            int object = expression.object.accept(this);
+            int index = expression.index.accept(this);
+            return node(INDEX, expression.bracket.line, object, index, 0);
+        }
+
+        @Override
+        public Integer visitIndexSetExpression(Expression.IndexSet expression) {
+            int object = expression.object.accept(this);
+            int index = expression.index.accept(this);
+            int value = expression.value.accept(this);
+            return node(INDEX_SET, expression.bracket.line, object, index, value);
+        }
+
+        @Override
+        public Integer visitLiteralExpression(Expression.Literal expression) {
+            return node(LITERAL, 0, constant(expression.value), 0, 0);
+        }
+
+        @Override
+        public Integer visitLogicalExpression(Expression.Logical expression) {
+            int left = expression.left.accept(this);
+            int right = expression.right.accept(this);
+            return node(expression.operator.type == TokenType.OR ? OR : AND, 0, left, right, 0);
+        }
+
+        @Override
+        public Integer visitMapExpression(Expression.Map expression) {
+            int[] nodes = new int[2 * expression.keys.size()];
+            for (int i = 0; i < expression.keys.size(); i++) {
+                nodes[2 * i] = expression.keys.get(i).accept(this);
+                nodes[2 * i + 1] = expression.values.get(i).accept(this);
+            }
+
+            return node(MAP, expression.brace.line, 0, list(nodes), nodes.length);
+        }
+
+        @Override
+        public Integer visitSetExpression(Expression.Set expression) {
+            int object = expression.object.accept(this);
+            int value = expression.value.accept(this);
+            return node(SET, expression.name.line, object, constant(expression.name.lexeme), value);
+        }
+
+        // The resolver only allows 'this' inside methods, where it's always a local.
+        @Override
+        public Integer visitThisExpression(Expression.This expression) {
+            return node(LOCAL, expression.keyword.line, expression.depth, constant("this"), 0);
+        }
+
+        @Override
+        public Integer visitUnaryExpression(Expression.Unary expression) {
+            int operand = expression.right.accept(this);
+            Token operator = expression.operator;
+            return node(UNARY, operator.line, operand, 0, operator.type.ordinal());
+        }
+
+        @Override
+        public Integer visitVariableExpression(Expression.Variable expression) {
+            Token name = expression.name;
+            if (expression.depth >= 0) {
+                return node(LOCAL, name.line, expression.depth, constant(name.lexeme), 0);
+            }
+
+            return node(GLOBAL, name.line, slot(name), constant(name.lexeme), 0);
+        }
+
+        @Override
+        public Integer visitBlockStatement(Statement.Block statement) {
+            int[] nodes = statements(statement.statements);
+            return node(BLOCK, 0, 0, list(nodes), nodes.length);
+        }
+
+        @Override
+        public Integer visitClassStatement(Statement.Class statement) {
+            int[] methods = new int[statement.methods.size()];
+            for (int i = 0; i < methods.length; i++) {
+                methods[i] = function(statement.methods.get(i));
+            }
+
+            Token name = statement.name;
+            return node(CLASS, name.line, constant(name.lexeme), list(methods), methods.length);
+        }
+
+        @Override
+        public Integer visitExpressionStatement(Statement.Expression statement) {
+            return node(EXPRESSION, 0, statement.expression.accept(this), 0, 0);
+        }
+
+        @Override
+        public Integer visitFunctionStatement(Statement.Function statement) {
+            return node(FUNCTION, statement.name.line, function(statement), 0, 0);
+        }
+
+        @Override
+        public Integer visitIfStatement(Statement.If statement) {
+            int condition = statement.condition.accept(this);
+            int thenBranch = statement.thenBranch.accept(this);
+            int elseBranch = statement.elseBranch != null ? statement.elseBranch.accept(this) : -1;
+            return node(IF, 0, condition, thenBranch, elseBranch);
+        }
+
+        @Override
+        public Integer visitImportStatement(Statement.Import statement) {
+            return node(IMPORT, statement.path.line, constant(statement.path.literal), 0, 0);
+        }
+
+        @Override
+        public Integer visitPrintStatement(Statement.Print statement) {
+            return node(PRINT, 0, statement.expression.accept(this), 0, 0);
+        }
+
+        @Override
+        public Integer visitReturnStatement(Statement.Return statement) {
+            if (statement.expression instanceof Expression.Call call && call.tailCall) {
+                int[] nodes = call(call);
+                return node(TAIL_RETURN, call.paren.line, sites++, list(nodes), nodes.length);
+            }
+
+            int value = statement.expression != null ? statement.expression.accept(this) : -1;
+            return node(RETURN, 0, value, 0, 0);
+        }
+
+        @Override
+        public Integer visitVarStatement(Statement.Var statement) {
+            int initializer = statement.initializer != null ? statement.initializer.accept(this) : -1;
+            return node(VAR, statement.name.line, initializer, constant(statement.name.lexeme), 0);
+        }
+
+        @Override
+        public Integer visitWhileStatement(Statement.While statement) {
+            int condition = statement.condition.accept(this);
+            int body = statement.body.accept(this);
+            return node(WHILE, statement.keyword.line, condition, body, 0);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package org.smithe65.jlox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.smithe65.jlox.FlatAst.*;
+
+// An interpreter that runs statement lists from their FlatAst encoding. Scripts, modules and
+// REPL entries are compiled when they run and not kept. Function bodies are compiled on their
+// first call and kept by the function's declaration, which lets go of the tree then. Semantics
+// come from the helpers shared with the tree interpreter.
+public class FlatInterpreter extends Interpreter {
+    @Override
+    void executeStatements(List<Statement> statements) {
+        FlatAst code = FlatAst.compile(statements, this);
+        executeList(code, code.rootStart, code.rootCount);
+    }
+
+    void executeFunction(FlatAst.Function function, Environment environment) {
+        FlatAst code = function.body(this);
+        Environment previous = this.environment;
+
+        try {
+            this.environment = environment;
+            executeList(code, code.rootStart, code.rootCount);
+        } finally {
+            this.environment = previous;
+        }
+    }
+
+    private void executeList(FlatAst code, int start, int count) {
+        for (int i = start; i < start + count; i++) {
+            execute(code, code.children[i]);
+        }
+    }
+
+    private void execute(FlatAst code, int node) {
+        metrics().statementExecuted();
+
+        switch (code.kinds[node]) {
+            case EXPRESSION:
+                evaluate(code, code.a[node]);
+                break;
+            case PRINT:
+                System.out.println(stringify(evaluate(code, code.a[node])));
+                break;
+            case VAR: {
+                Object value = code.a[node] >= 0 ? evaluate(code, code.a[node]) : null;
+                String name = (String)code.constants[code.b[node]];
+                if (environment == globals) invalidateMemoized(name);
+                environment.define(name, value);
+                break;
+            }
+            case BLOCK: {
+                Environment previous = enterScope();
+
+                try {
+                    executeList(code, code.b[node], code.c[node]);
+                } finally {
+                    exitScope(previous);
+                }
+                break;
+            }
+            case IF:
+                if (isTruthy(evaluate(code, code.a[node]))) {
+                    execute(code, code.b[node]);
+                } else if (code.c[node] >= 0) {
+                    execute(code, code.c[node]);
+                }
+                break;
+            case WHILE:
+                while (isTruthy(evaluate(code, code.a[node]))) {
+                    execute(code, code.b[node]);
+                    if (--fuel < 0) refuel(code.token(node));
+                }
+                break;
+            case RETURN:
+                throw new Return(code.a[node] >= 0 ? evaluate(code, code.a[node]) : null);
+            case TAIL_RETURN: {
+                Object callee = evaluate(code, code.children[code.b[node]]);
+                List<Object> arguments = arguments(code, code.b[node], code.c[node]);
+                LoxCallable function = callable(code, node, callee, arguments);
+
+                // Let the caller's LoxFunction.call loop run the callee in place of this frame.
+                if (function instanceof LoxFunction loxFunction) throw new TailCall(loxFunction, arguments);
+                throw new Return(invoke(code, node, function, arguments));
+            }
+            case FUNCTION: {
+                FlatAst.Function function = code.functions[code.a[node]];
+                MemoCache memo = declareFunction(function.name, function.pure);
+                environment.define(function.name, new LoxFunction(function, environment, memo));
+                break;
+            }
+            case CLASS: {
+                Map<String, LoxFunction> methods = new HashMap<>();
+                for (int i = code.b[node]; i < code.b[node] + code.c[node]; i++) {
+                    FlatAst.Function method = code.functions[code.children[i]];
+                    methods.put(method.name, new LoxFunction(method, environment, null));
+                }
+
+                defineClass(code.token(node), methods);
+                break;
+            }
+            case IMPORT:
+                importModule(code.token(node));
+                break;
+            default:
+                throw new IllegalStateException("Not a statement: " + code.kinds[node]);
+        }
+    }
+
+    private Object evaluate(FlatAst code, int node) {
+        switch (code.kinds[node]) {
+            case LITERAL:
+                return code.constants[code.a[node]];
+            case LOCAL:
+                return environment.getAt(code.a[node], (String)code.constants[code.b[node]]);
+            case GLOBAL: {
+                Object value = globals.value(code.a[node]);
+                if (value == GlobalEnvironment.UNDEFINED) throw GlobalEnvironment.undefined(code.token(node));
+                return value;
+            }
+            case ASSIGN_LOCAL: {
+                Object value = evaluate(code, code.c[node]);
+                environment.assignAt(code.a[node], (String)code.constants[code.b[node]], value);
+                return value;
+            }
+            case ASSIGN_GLOBAL: {
+                Object value = evaluate(code, code.c[node]);
+                invalidateMemoized((String)code.constants[code.b[node]]);
+                if (!globals.set(code.a[node], value)) throw GlobalEnvironment.undefined(code.token(node));
+                return value;
+            }
+            case BINARY: {
+                Object left = evaluate(code, code.a[node]);
+                Object right = evaluate(code, code.b[node]);
+                if (left instanceof Double a && right instanceof Double b) {
+                    return arithmetic(FlatAst.operator(code.c[node]), a, b);
+                }
+
+                return binary(code.token(node), left, right);
+            }
+            case UNARY:
+                return unary(FlatAst.operator(code.c[node]), evaluate(code, code.a[node]));
+            case AND: {
+                Object left = evaluate(code, code.a[node]);
+                return isTruthy(left) ? evaluate(code, code.b[node]) : left;
+            }
+            case OR: {
+                Object left = evaluate(code, code.a[node]);
+                return isTruthy(left) ? left : evaluate(code, code.b[node]);
+            }
+            case EQUAL:
+                return isEqual(evaluate(code, code.a[node]), evaluate(code, code.b[node]));
+            case NOT_EQUAL:
+                return !isEqual(evaluate(code, code.a[node]), evaluate(code, code.b[node]));
+            case CALL: {
+                Object callee = evaluate(code, code.children[code.b[node]]);
+                List<Object> arguments = arguments(code, code.b[node], code.c[node]);
+                return invoke(code, node, callable(code, node, callee, arguments), arguments);
+            }
+            case GET:
+                return property(code.token(node), evaluate(code, code.a[node]));
+            case SET: {
+                Token name = code.token(node);
+                LoxInstance instance = instance(name, evaluate(code, code.a[node]));
+                Object value = evaluate(code, code.c[node]);
+                setField(name, instance, value);
+                return value;
+            }
+            case INDEX: {
+                Object object = evaluate(code, code.a[node]);
+                Object index = evaluate(code, code.b[node]);
+                return index(code.token(node), object, index);
+            }
+            case INDEX_SET: {
+                Object object = evaluate(code, code.a[node]);
+                Object index = evaluate(code, code.b[node]);
+                Token bracket = code.token(node);
+                checkIndexable(bracket, object);
+
+                Object value = evaluate(code, code.c[node]);
+                setIndex(bracket, object, index, value);
+                return value;
+            }
+            case ARRAY: {
+                LoxArray array = array(code.token(node), code.c[node]);
+                for (int i = code.b[node]; i < code.b[node] + code.c[node]; i++) {
+                    array.add(evaluate(code, code.children[i]));
+                }
+
+                return array;
+            }
+            case MAP: {
+                Token brace = code.token(node);
+                LoxMap map = new LoxMap();
+                for (int i = code.b[node]; i < code.b[node] + code.c[node]; i += 2) {
+                    Object key = evaluate(code, code.children[i]);
+                    setIndex(brace, map, key, evaluate(code, code.children[i + 1]));
+                }
+
+                return map;
+            }
+            default:
+                throw new IllegalStateException("Not an expression: " + code.kinds[node]);
+        }
+    }
+
+    // The callee checked through the site's cache. Only a miss needs the site's token.
+    private LoxCallable callable(FlatAst code, int node, Object callee, List<Object> arguments) {
+        CallSiteCache cache = code.sites[code.a[node]];
+        if (cache.hit(callee)) {
+            if (--fuel < 0) refuel(code.token(node));
+            return (LoxCallable)callee;
+        }
+
+        return cache.missed(checkCallable(code.token(node), callee, arguments));
+    }
+
+    private Object invoke(FlatAst code, int node, LoxCallable function, List<Object> arguments) {
+        try {
+            return function.call(this, arguments);
+        } catch (NativeFunction.ArgumentError | MemoryLimitError | StackOverflowError e) {
+            throw callFailed(code.token(node), e);
+        }
+    }
+
+    // The arguments of a call whose callee is the first child in the run.
+    private List<Object> arguments(FlatAst code, int start, int count) {
+        List<Object> arguments = new ArrayList<>(count - 1);
+        for (int i = start + 1; i < start + count; i++) {
+            arguments.add(evaluate(code, code.children[i]));
+        }
+
+        return arguments;
+    }
+}
@@ -0,0 +1,67 @@
+package org.smithe65.jlox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+// Measures scanning and parsing throughput in MB/s, either on a given file or on a generated
+// script of expression-heavy code. Give it a large fixed heap so collection doesn't dominate:
+//   java -Xms2g -Xmx2g org.smithe65.jlox.FrontEndBenchmark [file]
+public class FrontEndBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws IOException {
+        String source = args.length > 0
+                ? new String(Files.readAllBytes(Paths.get(args[0])), Charset.defaultCharset())
+                : generate(4 * 1024 * 1024);
+        double megabytes = source.length() / (1024.0 * 1024.0);
+        System.out.printf("Source: %.1f MB%n", megabytes);
+
+        long scanTime = Long.MAX_VALUE;
+        long parallelScanTime = Long.MAX_VALUE;
+        long parseTime = Long.MAX_VALUE;
+
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            ErrorReporter reporter = new ErrorReporter(System.err);
+
+            long start = System.nanoTime();
+            List<Token> tokens = new Scanner(source, reporter).scanTokens();
+            long scanned = System.nanoTime();
+            new Parser(tokens, reporter).parse();
+            long parsed = System.nanoTime();
+            new ParallelScanner().scanTokens(source, reporter);
+            long parallelScanned = System.nanoTime();
+
+            if (round >= WARMUP_ROUNDS) {
+                scanTime = Math.min(scanTime, scanned - start);
+                parseTime = Math.min(parseTime, parsed - scanned);
+                parallelScanTime = Math.min(parallelScanTime, parallelScanned - parsed);
+            }
+        }
+
+        System.out.printf("Scan:  %.1f MB/s%n", megabytes / (scanTime / 1e9));
+        System.out.printf("Parallel scan: %.1f MB/s (%d threads)%n", megabytes / (parallelScanTime / 1e9),
+                ForkJoinPool.commonPool().getParallelism());
+        System.out.printf("Parse: %.1f MB/s%n", megabytes / (parseTime / 1e9));
+    }
+
+    private static String generate(int size) {
+        StringBuilder source = new StringBuilder(size + 256);
+        for (int i = 0; source.length() < size; i++) {
+            source.append("fun f").append(i).append("(a, b) {\n")
+                  .append("  var x = (a + b * 2 - ").append(i).append(") / 3;\n")
+                  .append("  if (x >= 10 and !(a == b) or x < -1) {\n")
+                  .append("    x = g(a, b.field, [1, 2, x])[0] + \"text\";\n")
+                  .append("  }\n")
+                  .append("  while (x <= 100) x = x * 2 + 1.5;\n")
+                  .append("  return {\"key\": x, \"other\": a != nil};\n")
+                  .append("}\n");
+        }
+
+        return source.toString();
+    }
+}
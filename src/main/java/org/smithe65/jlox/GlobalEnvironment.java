@@ -0,0 +1,106 @@
+package org.smithe65.jlox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Globals live in an array indexed by slot. Each environment numbers the names it sees in the
+// order it sees them, so its array only grows with its own globals. Defining or redefining a
+// global just fills its slot.
+//
+// A global reference remembers its slot on the tree, tagged with the id of the environment the
+// slot belongs to. A tree run by another interpreter, such as a cached module, fails the tag
+// check and looks its name up once more for that interpreter.
+public class GlobalEnvironment extends Environment {
+    private static final AtomicInteger nextId = new AtomicInteger();
+    static final Object UNDEFINED = new Object();
+
+    // Never 0, so a reference that hasn't been bound yet never matches.
+    private final int id = nextId.incrementAndGet();
+    private final Map<String, Integer> slots = new HashMap<>();
+    private Object[] values = new Object[64];
+
+    GlobalEnvironment() {
+        Arrays.fill(values, UNDEFINED);
+    }
+
+    int slotFor(String name) {
+        Integer slot = slots.get(name);
+        if (slot != null) return slot;
+
+        int next = slots.size();
+        if (next == values.length) {
+            values = Arrays.copyOf(values, next * 2);
+            Arrays.fill(values, next, values.length, UNDEFINED);
+        }
+
+        slots.put(name, next);
+        return next;
+    }
+
+    int slot(Expression.Variable expression) {
+        long binding = expression.binding;
+        if ((int)(binding >>> 32) == id) return (int)binding;
+
+        int slot = slotFor(expression.name.lexeme);
+        expression.binding = bind(slot);
+        return slot;
+    }
+
+    int slot(Expression.Assign expression) {
+        long binding = expression.binding;
+        if ((int)(binding >>> 32) == id) return (int)binding;
+
+        int slot = slotFor(expression.name.lexeme);
+        expression.binding = bind(slot);
+        return slot;
+    }
+
+    private long bind(int slot) {
+        return (long)id << 32 | slot;
+    }
+
+    Object get(int slot, Token name) {
+        Object value = values[slot];
+        if (value == UNDEFINED) throw undefined(name);
+        return value;
+    }
+
+    void assign(int slot, Token name, Object value) {
+        if (!set(slot, value)) throw undefined(name);
+    }
+
+    // For callers that only build a token once they know there's an error: value() returns
+    // UNDEFINED and set() returns false for a global that isn't defined.
+    Object value(int slot) {
+        return values[slot];
+    }
+
+    boolean set(int slot, Object value) {
+        if (values[slot] == UNDEFINED) return false;
+        values[slot] = value;
+        return true;
+    }
+
+    static RuntimeError undefined(Token name) {
+        return new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    }
+
+    @Override
+    public Object get(Token name) {
+        return get(slotFor(name.lexeme), name);
+    }
+
+    @Override
+    public void assign(Token name, Object value) {
+        assign(slotFor(name.lexeme), name, value);
+    }
+
+    @Override
+    public void define(String name, Object value) {
+        // slotFor can grow the array, so it has to run before values is read.
+        int slot = slotFor(name);
+        values[slot] = value;
+    }
+}
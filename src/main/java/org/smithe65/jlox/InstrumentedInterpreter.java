@@ -0,0 +1,194 @@
+package org.smithe65.jlox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// An interpreter that counts every statement and expression it runs and the time spent in it,
+// excluding time spent in its children, then reports the totals per source line. Nodes from
+// imported modules are reported against their own file; a function body belongs to the file
+// that declared it, wherever it is called from.
+public class InstrumentedInterpreter extends Interpreter {
+    private final LineFinder lineFinder = new LineFinder();
+    private final Map<Object, NodeStats> nodes = new IdentityHashMap<>();
+    private long childNanos;
+    private int currentLine = LineFinder.UNKNOWN;
+    // The module being run, or null for the script itself.
+    private Path currentFile = null;
+    private final Map<List<Statement>, Path> bodyFiles = new IdentityHashMap<>();
+
+    // Traced loops don't run through execute() and evaluate(), so they would go unmeasured.
+    @Override
+    public void setTraceLoops(boolean enabled) {
+    }
+
+    @Override
+    void execute(Statement statement) {
+        NodeStats stats = nodes.computeIfAbsent(statement,
+                node -> new NodeStats(currentFile, lineOf(lineFinder.line(statement))));
+        int outerLine = currentLine;
+        long outerChildNanos = childNanos;
+        long start = System.nanoTime();
+        currentLine = stats.line;
+        childNanos = 0;
+
+        try {
+            super.execute(statement);
+        } finally {
+            record(stats, start, outerChildNanos);
+            currentLine = outerLine;
+        }
+    }
+
+    @Override
+    Object evaluate(Expression expression) {
+        NodeStats stats = nodes.computeIfAbsent(expression,
+                node -> new NodeStats(currentFile, lineOf(lineFinder.line(expression))));
+        int outerLine = currentLine;
+        long outerChildNanos = childNanos;
+        long start = System.nanoTime();
+        currentLine = stats.line;
+        childNanos = 0;
+
+        try {
+            return super.evaluate(expression);
+        } finally {
+            record(stats, start, outerChildNanos);
+            currentLine = outerLine;
+        }
+    }
+
+    @Override
+    void executeModule(Module module) {
+        Path outerFile = currentFile;
+        int outerLine = currentLine;
+        currentFile = module.path;
+        // The importer's line means nothing in the module.
+        currentLine = LineFinder.UNKNOWN;
+
+        try {
+            super.executeModule(module);
+        } finally {
+            currentFile = outerFile;
+            currentLine = outerLine;
+        }
+    }
+
+    @Override
+    public Void visitFunctionStatement(Statement.Function statement) {
+        bodyFiles.put(statement.body, currentFile);
+        return super.visitFunctionStatement(statement);
+    }
+
+    @Override
+    public Void visitClassStatement(Statement.Class statement) {
+        for (Statement.Function method : statement.methods) {
+            bodyFiles.put(method.body, currentFile);
+        }
+
+        return super.visitClassStatement(statement);
+    }
+
+    @Override
+    void executeBlock(List<Statement> statements, Environment environment) {
+        if (!bodyFiles.containsKey(statements)) {
+            super.executeBlock(statements, environment);
+            return;
+        }
+
+        Path outerFile = currentFile;
+        currentFile = bodyFiles.get(statements);
+
+        try {
+            super.executeBlock(statements, environment);
+        } finally {
+            currentFile = outerFile;
+        }
+    }
+
+    // Nodes without a token of their own, like literals, are charged to the line of their parent.
+    private int lineOf(int line) {
+        return line == LineFinder.UNKNOWN ? currentLine : line;
+    }
+
+    private void record(NodeStats stats, long start, long outerChildNanos) {
+        long elapsed = System.nanoTime() - start;
+        stats.count++;
+        stats.selfNanos += elapsed - childNanos;
+        childNanos = outerChildNanos + elapsed;
+    }
+
+    public void report(String source, PrintStream out) {
+        Map<Location, LineStats> lines = new HashMap<>();
+        for (NodeStats node : nodes.values()) {
+            // Line 0 is for nodes with no token anywhere in them, which have no line to show.
+            if (node.line <= 0) continue;
+
+            LineStats line = lines.computeIfAbsent(new Location(node.file, node.line), LineStats::new);
+            line.nodes++;
+            line.executions += node.count;
+            line.selfNanos += node.selfNanos;
+        }
+
+        if (lines.isEmpty()) return;
+
+        List<LineStats> sorted = new ArrayList<>(lines.values());
+        sorted.sort(Comparator.comparingLong((LineStats line) -> line.selfNanos).reversed());
+
+        Map<Path, String[]> texts = new HashMap<>();
+        texts.put(null, source.split("\n", -1));
+
+        out.println("Hot lines (self time, executions, nodes, line):");
+        for (LineStats line : sorted) {
+            Location location = line.location;
+            String[] text = texts.computeIfAbsent(location.file(), InstrumentedInterpreter::readLines);
+            String code = location.line() <= text.length ? text[location.line() - 1].strip() : "";
+            String label = location.file() == null
+                    ? String.valueOf(location.line())
+                    : location.file().getFileName() + ":" + location.line();
+            out.printf("%10.3f ms %12d %5d %5s | %s%n",
+                    line.selfNanos / 1_000_000.0, line.executions, line.nodes, label, code);
+        }
+    }
+
+    private static String[] readLines(Path file) {
+        try {
+            return new String(Files.readAllBytes(file), Charset.defaultCharset()).split("\n", -1);
+        } catch (IOException e) {
+            return new String[0];
+        }
+    }
+
+    private record Location(Path file, int line) {}
+
+    private static class NodeStats {
+        final Path file;
+        final int line;
+        long count;
+        long selfNanos;
+
+        NodeStats(Path file, int line) {
+            this.file = file;
+            this.line = line;
+        }
+    }
+
+    private static class LineStats {
+        final Location location;
+        long nodes;
+        long executions;
+        long selfNanos;
+
+        LineStats(Location location) {
+            this.location = location;
+        }
+    }
+}
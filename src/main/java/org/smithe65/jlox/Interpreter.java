@@ -1,46 +1,177 @@
 package org.smithe65.jlox;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-
-public class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Void> {
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expression, Integer> locals = new HashMap<>();
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Lox calls recurse on the Java stack, so how deep a script can recurse depends on the thread
+// that calls interpret(). Lox.main runs it on a thread with a large stack (--stack-size); code
+// embedding the interpreter gets only its own thread's stack unless it does the same. Running
+// out is reported as a 'Stack overflow.' runtime error either way.
+public class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Void>, AutoCloseable {
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    private final int id = instances.incrementAndGet();
+    final GlobalEnvironment globals = new GlobalEnvironment();
+    Environment environment = globals;
+    private final CallStack callStack = new CallStack();
+    private final InterpreterMetrics metrics = new InterpreterMetrics(callStack);
+    private final MemoryAccount memory = new MemoryAccount();
+    private ObjectName metricsName;
+    private final Set<Path> importedModules = new HashSet<>();
+    // Call sites are numbered per interpreter as they first run. A site caches its number on the
+    // tree, tagged with this interpreter's id; a site last run by another interpreter finds its
+    // number here instead.
+    private CallSiteCache[] callSites = new CallSiteCache[64];
+    private final Map<Expression.Call, Integer> callSiteNumbers = new WeakHashMap<>();
+    private Path directory = Paths.get("").toAbsolutePath();
+    private final Set<Statement.Function> memoizable = new HashSet<>();
+    private final Map<String, MemoCache> memoCaches = new HashMap<>();
+    private int memoCapacity = 0;
+    // Off until traces have run long enough to be trusted by default.
+    private boolean traceLoops = false;
+    private TypeProfile profile;
+    private Statement.While recording;
+    // Trees are shared between interpreters, so what each one learns about a loop is kept here.
+    private final Map<Statement.While, LoopTrace.State> loops = new WeakHashMap<>();
+
+    // Budgets are checked by counting down 'fuel' and only doing the slower checks, including
+    // reading the clock, once a batch of steps has been used up.
+    private static final long CHECK_INTERVAL = 1024;
+    private long stepBudget = Long.MAX_VALUE;
+    private long timeoutNanos = 0;
+    private long stepsRemaining;
+    long fuel;
+    private long deadline;
 
     public Interpreter() {
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public int arity() { return 0; }
+        NativeRegistry.register(globals, Natives.class);
+        metricsName = register(metrics, id);
+    }
 
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double)System.currentTimeMillis() / 1000;
-            }
+    // Metrics are a convenience, so an interpreter still works if they can't be published.
+    private static ObjectName register(InterpreterMetrics metrics, int id) {
+        try {
+            ObjectName name = new ObjectName("org.smithe65.jlox:type=Interpreter,id=" + id);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            return name;
+        } catch (JMException | SecurityException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (metricsName == null) return;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+        } catch (JMException e) {
+            // Already unregistered by someone else; there is nothing left to release.
+        } finally {
+            metricsName = null;
+        }
+    }
+
+    public void registerNatives(Class<?> natives) {
+        NativeRegistry.register(globals, natives);
+    }
+
+    // Directory that imports in the script being run are relative to.
+    public void setDirectory(Path directory) {
+        this.directory = directory.toAbsolutePath();
+    }
+
+    public void setStepBudget(long steps) {
+        stepBudget = steps;
+    }
+
+    public void setTimeout(Duration timeout) {
+        timeoutNanos = timeout.toNanos();
+    }
+
+    public void setMemoryLimit(long bytes) {
+        memory.setLimit(bytes);
+    }
+
+    public MemoryAccount memory() {
+        return memory;
+    }
+
+    public void setMemoCapacity(int capacity) {
+        memoCapacity = capacity;
+    }
 
-            @Override
-            public String toString() { return "<native-fn>"; }
-        });
+    public void setTraceLoops(boolean enabled) {
+        traceLoops = enabled;
+    }
+
+    public CallStack callStack() {
+        return callStack;
+    }
+
+    public InterpreterMetrics metrics() {
+        return metrics;
+    }
+
+    public Map<String, MemoCache> memoCaches() {
+        return Collections.unmodifiableMap(memoCaches);
     }
 
     public void interpret(List<Statement> statements) {
+        long start = System.nanoTime();
+        stepsRemaining = stepBudget;
+        fuel = 0;
+        memory.reset();
+        deadline = start + timeoutNanos;
+        Path scriptDirectory = directory;
+
         try {
-            for (Statement statement : statements) {
-                execute(statement);
-            }
+            analyzePurity(statements);
+            executeStatements(statements);
         } catch (RuntimeError e) {
+            LoxEvents.ScriptError event = new LoxEvents.ScriptError();
+            if (event.isEnabled()) {
+                event.message = e.getMessage();
+                event.line = e.token != null ? e.token.line : 0;
+                event.commit();
+            }
+
             Lox.runtimeError(e);
+        } finally {
+            // A stack overflow can strike again in the finally blocks that unwind the calls it
+            // passes through, so put back whatever they may have missed before the next run.
+            environment = globals;
+            directory = scriptDirectory;
+            callStack.clear();
+            stopRecording();
+            metrics.scriptExecuted(System.nanoTime() - start);
         }
     }
 
-    private void execute(Statement statement) {
-        statement.accept(this);
+    private void analyzePurity(List<Statement> statements) {
+        if (memoCapacity > 0) {
+            memoizable.addAll(new PurityAnalyzer().analyze(statements));
+        }
     }
 
-    public void resolve(Expression expression, int depth) {
-        locals.put(expression, depth);
+    void execute(Statement statement) {
+        metrics.statementExecuted();
+        statement.accept(this);
     }
 
     void executeBlock(List<Statement> statements, Environment environment) {
@@ -48,113 +179,232 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
 
         try {
             this.environment = environment;
-
-            for (Statement statement : statements) {
-                execute(statement);
-            }
+            executeStatements(statements);
         } finally {
             this.environment = previous;
         }
     }
 
+    // Runs statements in the current environment. Every statement list the interpreter runs,
+    // from a whole script to a function body, goes through here.
+    void executeStatements(List<Statement> statements) {
+        for (Statement statement : statements) {
+            execute(statement);
+        }
+    }
+
     @Override
     public Void visitBlockStatement(Statement.Block statement) {
-        executeBlock(statement.statements, new Environment(environment));
+        Environment previous = enterScope();
+
+        try {
+            executeStatements(statement.statements);
+        } finally {
+            exitScope(previous);
+        }
+
         return null;
     }
 
+    // A block's scope. Traced loops open theirs through here too.
+    Environment enterScope() {
+        memory.allocate(null, MemoryAccount.ENVIRONMENT);
+        Environment previous = environment;
+        environment = new Environment(previous);
+        return previous;
+    }
+
+    void exitScope(Environment previous) {
+        environment = previous;
+        memory.release(MemoryAccount.ENVIRONMENT);
+    }
+
     @Override
     public Void visitClassStatement(Statement.Class statement) {
-        environment.define(statement.name.lexeme, null);
-
         Map<String, LoxFunction> methods = new HashMap<>();
         for (Statement.Function method : statement.methods) {
             LoxFunction function = new LoxFunction(method, environment);
             methods.put(method.name.lexeme, function);
         }
 
-        LoxClass loxClass = new LoxClass(statement.name.lexeme, methods);
-        environment.assign(statement.name, loxClass);
+        defineClass(statement.name, methods);
         return null;
     }
 
+    void defineClass(Token name, Map<String, LoxFunction> methods) {
+        if (environment == globals) invalidateMemoized(name.lexeme);
+        environment.define(name.lexeme, null);
+
+        LoxClass loxClass = new LoxClass(name.lexeme, methods);
+        environment.assign(name, loxClass);
+    }
+
+    @Override
+    public Object visitArrayExpression(Expression.Array expression) {
+        LoxArray array = array(expression.bracket, expression.elements.size());
+        for (Expression element : expression.elements) {
+            array.add(evaluate(element));
+        }
+
+        return array;
+    }
+
+    LoxArray array(Token bracket, int size) {
+        memory.allocate(bracket, MemoryAccount.SLOT * size);
+        return new LoxArray(size);
+    }
+
     @Override
     public Object visitBinaryExpression(Expression.Binary expression) {
         Object left = evaluate(expression.left);
         Object right = evaluate(expression.right);
+        if (profile != null) profile.binary(expression, left, right);
+        return binary(expression.operator, left, right);
+    }
 
-        switch (expression.operator.type) {
-            case MINUS:
-                checkNumberOperand(expression.operator, right);
-                return (double)left - (double)right;
-            case PLUS:
-                if (left instanceof Double && right instanceof Double) {
-                    return (double) left + (double) right;
-                }
-                if (left instanceof String && right instanceof String) {
-                    return (String)left + (String)right;
-                }
-                throw new RuntimeError(expression.operator, "Operands must be two numbers or two strings.");
-            case SLASH:
-                checkNumberOperands(expression.operator, left, right);
-                return (double)left / (double)right;
-            case STAR:
-                checkNumberOperands(expression.operator, left, right);
-                return (double)left * (double)right;
-
-            case GREATER:
-                checkNumberOperands(expression.operator, left, right);
-                return (double)left > (double)right;
-            case GREATER_EQUAL:
-                checkNumberOperands(expression.operator, left, right);
-                return (double)left >= (double)right;
-            case LESS:
-                checkNumberOperands(expression.operator, left, right);
-                return (double)left < (double)right;
-            case LESS_EQUAL:
-                checkNumberOperands(expression.operator, left, right);
-                return (double)left <= (double)right;
-
+    Object binary(Token operator, Object left, Object right) {
+        switch (operator.type) {
             case BANG_EQUAL:
                 return !isEqual(left, right);
             case EQUAL_EQUAL:
                 return isEqual(left, right);
-
             default:
-                return null;
+                break;
+        }
+
+        if (left instanceof Double a && right instanceof Double b) {
+            return arithmetic(operator.type, a, b);
+        }
+
+        if (operator.type == TokenType.PLUS) {
+            if (left instanceof CharSequence && right instanceof CharSequence) {
+                // Appends usually happen in place, so only the new characters are charged.
+                memory.allocate(operator,
+                        MemoryAccount.STRING + MemoryAccount.CHAR * ((CharSequence)right).length());
+                return LoxString.concat((CharSequence)left, (CharSequence)right);
+            }
+            throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
         }
+
+        checkNumberOperands(operator, left, right);
+        return null;
+    }
+
+    // The operators that take two numbers, which is what most hot code runs.
+    static Object arithmetic(TokenType operator, double left, double right) {
+        return switch (operator) {
+            case MINUS -> left - right;
+            case PLUS -> left + right;
+            case SLASH -> left / right;
+            case STAR -> left * right;
+            case GREATER -> left > right;
+            case GREATER_EQUAL -> left >= right;
+            case LESS -> left < right;
+            case LESS_EQUAL -> left <= right;
+            default -> null;
+        };
     }
 
     @Override
     public Object visitCallExpression(Expression.Call expression) {
         Object callee = evaluate(expression.callee);
+        List<Object> arguments = evaluateArguments(expression.arguments);
+        LoxCallable function = callable(expression, callee, arguments);
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expression argument : expression.arguments) {
+        return invoke(expression.paren, function, arguments);
+    }
+
+    // Checks the callee through the site's cache, redoing the full check only when the
+    // callee differs from the one the site saw last.
+    LoxCallable callable(Expression.Call call, Object callee, List<Object> arguments) {
+        CallSiteCache cache = callSite(call);
+        if (cache.hit(callee)) {
+            tick(call.paren);
+            return (LoxCallable)callee;
+        }
+
+        return cache.missed(checkCallable(call.paren, callee, arguments));
+    }
+
+    private CallSiteCache callSite(Expression.Call call) {
+        long site = call.site;
+        if ((int)(site >>> 32) == id) return callSites[(int)site];
+
+        int number = callSiteNumbers.computeIfAbsent(call, key -> newCallSite());
+        call.site = (long)id << 32 | number;
+        return callSites[number];
+    }
+
+    private int newCallSite() {
+        int number = callSiteNumbers.size();
+        if (number == callSites.length) callSites = Arrays.copyOf(callSites, number * 2);
+        callSites[number] = new CallSiteCache();
+        return number;
+    }
+
+    Object invoke(Token paren, LoxCallable function, List<Object> arguments) {
+        try {
+            return function.call(this, arguments);
+        } catch (NativeFunction.ArgumentError | MemoryLimitError | StackOverflowError e) {
+            throw callFailed(paren, e);
+        }
+    }
+
+    // Reports an error raised inside a call at the call site.
+    static RuntimeError callFailed(Token paren, Throwable error) {
+        if (error instanceof MemoryLimitError limit) {
+            return limit.token == null ? new MemoryLimitError(paren, limit.getMessage()) : limit;
+        }
+
+        if (error instanceof StackOverflowError) return new RuntimeError(paren, "Stack overflow.");
+        return new RuntimeError(paren, error.getMessage());
+    }
+
+    List<Object> evaluateArguments(List<Expression> expressions) {
+        List<Object> arguments = new ArrayList<>(expressions.size());
+        for (Expression argument : expressions) {
             arguments.add(evaluate(argument));
         }
 
+        return arguments;
+    }
+
+    LoxCallable checkCallable(Token paren, Object callee, List<Object> arguments) {
+        tick(paren);
+
         if (!(callee instanceof LoxCallable function)) {
-            throw new RuntimeError(expression.paren, "Can only call functions and classes");
+            throw new RuntimeError(paren, "Can only call functions and classes");
         }
 
         if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expression.paren,
+            throw new RuntimeError(paren,
                     "Expected " + function.arity() +
                     " arguments but got " + arguments.size() + ".");
         }
 
-        return function.call(this, arguments);
+        return function;
     }
 
     @Override
     public Object visitGetExpression(Expression.Get expression) {
         Object object = evaluate(expression.object);
+        return property(expression.name, object);
+    }
+
+    Object property(Token name, Object object) {
         if (object instanceof LoxInstance) {
-            return ((LoxInstance)object).get(expression.name);
+            return ((LoxInstance)object).get(name);
+        }
+
+        if (object instanceof LoxArray array) {
+            return array.get(name);
         }
 
-        throw new RuntimeError(expression.name, "Only instances have properties.");
+        if (object instanceof LoxMap map) {
+            return map.get(name);
+        }
+
+        throw new RuntimeError(name, "Only instances have properties.");
     }
 
     @Override
@@ -162,6 +412,50 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
         return evaluate(expression.expression);
     }
 
+    @Override
+    public Object visitIndexExpression(Expression.Index expression) {
+        Object object = evaluate(expression.object);
+        Object index = evaluate(expression.index);
+        return index(expression.bracket, object, index);
+    }
+
+    Object index(Token bracket, Object object, Object index) {
+        if (object instanceof LoxArray array) {
+            return array.get(bracket, index);
+        }
+
+        if (object instanceof LoxMap map) {
+            return map.get(bracket, index);
+        }
+
+        throw new RuntimeError(bracket, "Only arrays and maps can be indexed.");
+    }
+
+    @Override
+    public Object visitIndexSetExpression(Expression.IndexSet expression) {
+        Object object = evaluate(expression.object);
+        Object index = evaluate(expression.index);
+        checkIndexable(expression.bracket, object);
+
+        Object value = evaluate(expression.value);
+        setIndex(expression.bracket, object, index, value);
+        return value;
+    }
+
+    void checkIndexable(Token bracket, Object object) {
+        if (!(object instanceof LoxArray) && !(object instanceof LoxMap)) {
+            throw new RuntimeError(bracket, "Only arrays and maps can be indexed.");
+        }
+    }
+
+    void setIndex(Token bracket, Object object, Object index, Object value) {
+        if (object instanceof LoxArray array) {
+            array.set(bracket, index, value);
+        } else if (((LoxMap)object).set(bracket, index, value)) {
+            memory.allocate(bracket, 2 * MemoryAccount.SLOT);
+        }
+    }
+
     @Override
     public Object visitLiteralExpression(Expression.Literal expression) {
         return expression.value;
@@ -179,29 +473,51 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
         return evaluate(expression.right);
     }
 
+    @Override
+    public Object visitMapExpression(Expression.Map expression) {
+        LoxMap map = new LoxMap();
+        for (int i = 0; i < expression.keys.size(); i++) {
+            Object key = evaluate(expression.keys.get(i));
+            setIndex(expression.brace, map, key, evaluate(expression.values.get(i)));
+        }
+
+        return map;
+    }
+
     @Override
     public Object visitSetExpression(Expression.Set expression) {
         Object object = evaluate(expression.object);
-
-        if (!(object instanceof LoxInstance)) {
-            throw new RuntimeError(expression.name, "Only instances have fields.");
-        }
+        LoxInstance instance = instance(expression.name, object);
 
         Object value = evaluate(expression.value);
-        ((LoxInstance)object).set(expression.name, value);
+        setField(expression.name, instance, value);
         return value;
     }
 
+    LoxInstance instance(Token name, Object object) {
+        if (object instanceof LoxInstance instance) return instance;
+        throw new RuntimeError(name, "Only instances have fields.");
+    }
+
+    void setField(Token name, LoxInstance instance, Object value) {
+        if (instance.set(name, value)) {
+            memory.allocate(name, MemoryAccount.FIELD);
+        }
+    }
+
     @Override
     public Object visitThisExpression(Expression.This expression) {
-        return lookUpVariable(expression.keyword, expression);
+        return lookUpVariable(expression.keyword, expression.depth);
     }
 
     @Override
     public Object visitUnaryExpression(Expression.Unary expression) {
         Object right = evaluate(expression.right);
+        return unary(expression.operator.type, right);
+    }
 
-        return switch (expression.operator.type) {
+    Object unary(TokenType operator, Object right) {
+        return switch (operator) {
             case BANG -> !isTruthy(right);
             case MINUS -> -(double) right;
             default -> null;
@@ -210,22 +526,38 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
 
     @Override
     public Object visitVariableExpression(Expression.Variable expression) {
-        return lookUpVariable(expression.name, expression);
-    }
+        if (expression.depth >= 0) {
+            return environment.getAt(expression.depth, expression.name.lexeme);
+        }
 
-    private Object lookUpVariable(Token name, Expression expression) {
-        Integer distance = locals.get(expression);
+        return globals.get(globals.slot(expression), expression.name);
+    }
 
-        if (distance != null) {
+    private Object lookUpVariable(Token name, int distance) {
+        if (distance >= 0) {
             return environment.getAt(distance, name.lexeme);
         } else {
             return globals.get(name);
         }
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
-        if (operand instanceof Double) return;
-        throw new RuntimeError(operator, "Operand must be a number.");
+    void tick(Token token) {
+        if (--fuel < 0) refuel(token);
+    }
+
+    // Callers that would have to build a token to tick can check the fuel themselves.
+    void refuel(Token token) {
+        if (stepsRemaining <= 0) {
+            throw new BudgetExceededError(token, "Step budget exceeded.");
+        }
+
+        if (timeoutNanos > 0 && System.nanoTime() - deadline > 0) {
+            throw new BudgetExceededError(token, "Time limit exceeded.");
+        }
+
+        long granted = Math.min(CHECK_INTERVAL, stepsRemaining);
+        stepsRemaining -= granted;
+        fuel = granted - 1;
     }
 
     private void checkNumberOperands(Token operator, Object left, Object right) {
@@ -233,17 +565,21 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
 
-    private Object evaluate(Expression expression) {
+    Object evaluate(Expression expression) {
         return expression.accept(this);
     }
 
-    private boolean isEqual(Object left, Object right) {
+    boolean isEqual(Object left, Object right) {
         if (left == null && right == null) return true;
         if (left == null) return false;
+        if (left instanceof CharSequence && right instanceof CharSequence) {
+            return left.toString().equals(right.toString());
+        }
+
         return left.equals(right);
     }
 
-    private boolean isTruthy(Object value) {
+    boolean isTruthy(Object value) {
         if (value == null) return false;
         if (value instanceof Boolean) return (boolean) value;
         return true;
@@ -257,11 +593,28 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
 
     @Override
     public Void visitFunctionStatement(Statement.Function statement) {
-        LoxFunction function = new LoxFunction(statement, environment);
+        MemoCache memo = declareFunction(statement.name.lexeme, memoizable.contains(statement));
+        LoxFunction function = new LoxFunction(statement, environment, memo);
         environment.define(statement.name.lexeme, function);
         return null;
     }
 
+    // Returns the memo cache for a function being declared, or null if its calls aren't cached.
+    MemoCache declareFunction(String name, boolean pure) {
+        if (environment != globals) return null;
+
+        invalidateMemoized(name);
+        if (!pure) return null;
+
+        MemoCache memo = new MemoCache(memoCapacity);
+        memoCaches.put(name, memo);
+        return memo;
+    }
+
+    boolean isMemoizable(Statement.Function function) {
+        return memoizable.contains(function);
+    }
+
     @Override
     public Void visitIfStatement(Statement.If statement) {
         if (isTruthy(evaluate(statement.condition))) {
@@ -272,6 +625,50 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
         return null;
     }
 
+    @Override
+    public Void visitImportStatement(Statement.Import statement) {
+        importModule(statement.path);
+        return null;
+    }
+
+    void importModule(Token file) {
+        Path path = directory.resolve((String)file.literal).normalize();
+        if (!importedModules.add(path)) return;
+
+        ErrorReporter errors = new ErrorReporter();
+        Module module;
+        try {
+            module = ModuleCache.load(path, errors);
+        } catch (IOException e) {
+            throw new RuntimeError(file, "Can't read module '" + path + "'.");
+        }
+
+        if (module == null) {
+            StringBuilder message = new StringBuilder("Module '" + path + "' has errors:");
+            for (String error : errors.errors()) {
+                message.append('\n').append(path.getFileName()).append(' ').append(error);
+            }
+
+            throw new RuntimeError(file, message.toString());
+        }
+
+        // Modules run in the global scope, where their top-level definitions become visible
+        // to the importer, and their own imports are relative to their own directory.
+        analyzePurity(module.statements);
+        executeModule(module);
+    }
+
+    void executeModule(Module module) {
+        Path importer = directory;
+        directory = module.path.getParent();
+
+        try {
+            executeStatements(module.statements);
+        } finally {
+            directory = importer;
+        }
+    }
+
     @Override
     public Void visitPrintStatement(Statement.Print statement) {
         Object value = evaluate(statement.expression);
@@ -282,10 +679,27 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
     @Override
     public Void visitReturnStatement(Statement.Return statement) {
         Object value = null;
-        if (statement.expression != null) value = evaluate(statement.expression);
+
+        if (statement.expression instanceof Expression.Call call && call.tailCall) {
+            Object callee = evaluate(call.callee);
+            List<Object> arguments = evaluateArguments(call.arguments);
+            value = tailCall(call.paren, callable(call, callee, arguments), arguments);
+        } else if (statement.expression != null) {
+            value = evaluate(statement.expression);
+        }
+
         throw new Return(value);
     }
 
+    Object tailCall(Token paren, LoxCallable function, List<Object> arguments) {
+        // Let the caller's LoxFunction.call loop run the callee in place of this frame.
+        if (function instanceof LoxFunction loxFunction) {
+            throw new TailCall(loxFunction, arguments);
+        }
+
+        return invoke(paren, function, arguments);
+    }
+
     @Override
     public Void visitVarStatement(Statement.Var statement) {
         Object value = null;
@@ -294,34 +708,91 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
             value = evaluate(statement.initializer);
         }
 
+        if (environment == globals) invalidateMemoized(statement.name.lexeme);
         environment.define(statement.name.lexeme, value);
         return null;
     }
 
     @Override
     public Void visitWhileStatement(Statement.While statement) {
-        while (isTruthy(evaluate(statement.condition))) {
-            execute(statement.body);
+        LoopTrace.State loop = traceLoops ? loops.computeIfAbsent(statement, key -> new LoopTrace.State()) : null;
+
+        try {
+            while (isTruthy(evaluate(statement.condition))) {
+                execute(statement.body);
+                tick(statement.keyword);
+                if (loop != null && backEdge(statement, loop)) break;
+            }
+        } finally {
+            if (recording == statement) stopRecording();
         }
 
         return null;
     }
 
+    // What this interpreter knows about a loop, or null if it hasn't run it with traces on.
+    LoopTrace.State loopState(Statement.While statement) {
+        return loops.get(statement);
+    }
+
+    // Counts a back-edge of a loop. Once the loop is hot, the next iteration is recorded and
+    // compiled, and the loop switches to the trace right away instead of on its next run.
+    // Returns true if the trace ran the loop to the end.
+    private boolean backEdge(Statement.While statement, LoopTrace.State loop) {
+        if (loop.trace == null && recording == statement) {
+            loop.trace = new LoopTrace(statement, profile, globals);
+            stopRecording();
+        }
+
+        if (loop.trace != null) {
+            if (loop.trace.run(this, statement)) return true;
+
+            // The trace kept failing its guards, so leave this loop to the tree from now on.
+            loop.trace = null;
+            loop.hotness = Integer.MIN_VALUE;
+            return false;
+        }
+
+        if (++loop.hotness >= LoopTrace.HOT_LOOP && recording == null) {
+            profile = new TypeProfile();
+            recording = statement;
+        }
+
+        return false;
+    }
+
+    private void stopRecording() {
+        profile = null;
+        recording = null;
+    }
+
     @Override
     public Object visitAssignExpression(Expression.Assign expression) {
         Object value = evaluate(expression.value);
+        assign(expression, value);
+        return value;
+    }
 
-        Integer distance = locals.get(expression);
-        if (distance != null) {
-            environment.assignAt(distance, expression.name, value);
+    void assign(Expression.Assign expression, Object value) {
+        if (expression.depth >= 0) {
+            environment.assignAt(expression.depth, expression.name.lexeme, value);
         } else {
-            globals.assign(expression.name, value);
+            invalidateMemoized(expression.name.lexeme);
+            globals.assign(globals.slot(expression), expression.name, value);
         }
+    }
 
-        return value;
+    // Memoized functions only call each other, so rebinding any of their global names
+    // could change what a cached call would return.
+    void invalidateMemoized(String name) {
+        if (!memoCaches.containsKey(name)) return;
+
+        for (MemoCache memo : memoCaches.values()) {
+            memo.invalidate();
+        }
     }
 
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null) return "nil";
 
         if (object instanceof Double) {
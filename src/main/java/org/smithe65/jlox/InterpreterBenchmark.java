@@ -0,0 +1,62 @@
+package org.smithe65.jlox;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.Supplier;
+
+// Runs one script repeatedly in an interpreter variant and reports the best time per run.
+// Output from the script is discarded while timing. Variants share code that the JIT profiles,
+// so for clean numbers measure each one in its own JVM:
+//   java -Xss256m org.smithe65.jlox.InterpreterBenchmark <script> [rounds] [visitor|switch|flat]
+public class InterpreterBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: InterpreterBenchmark <script> [rounds] [visitor|switch|flat]");
+            System.exit(64);
+        }
+
+        String source = new String(Files.readAllBytes(Paths.get(args[0])), Charset.defaultCharset());
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        String only = args.length > 2 ? args[2] : null;
+
+        ErrorReporter reporter = new ErrorReporter(System.err);
+        List<Statement> statements = new Parser(new Scanner(source, reporter).scanTokens(), reporter).parse();
+        new Resolver(reporter).resolve(statements);
+        if (reporter.hadError()) System.exit(65);
+
+        measure("visitor", Interpreter::new, statements, rounds, only);
+        measure("switch", SwitchInterpreter::new, statements, rounds, only);
+        measure("flat", FlatInterpreter::new, statements, rounds, only);
+    }
+
+    private static void measure(String name, Supplier<Interpreter> variant, List<Statement> statements,
+                                int rounds, String only) {
+        if (only != null && !only.equals(name)) return;
+
+        PrintStream out = System.out;
+        long best = Long.MAX_VALUE;
+
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int round = 0; round < WARMUP_ROUNDS + rounds; round++) {
+                try (Interpreter interpreter = variant.get()) {
+                    long start = System.nanoTime();
+                    interpreter.interpret(statements);
+                    long elapsed = System.nanoTime() - start;
+                    if (round >= WARMUP_ROUNDS) best = Math.min(best, elapsed);
+                }
+            }
+        } finally {
+            System.setOut(out);
+        }
+
+        System.out.printf("%-8s %8.1f ms%n", name, best / 1e6);
+    }
+}
@@ -0,0 +1,95 @@
+package org.smithe65.jlox;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters for one interpreter, exposed over JMX. Hot-path counters are LongAdders so readers and
+// concurrent writers never contend on a single cache line; script latencies are kept in a small
+// ring buffer that the percentile is computed from on demand.
+public class InterpreterMetrics implements InterpreterMetricsMBean {
+    // A power of two, so the ring buffer index can wrap with a mask.
+    private static final int LATENCY_SAMPLES = 1024;
+
+    private final CallStack callStack;
+    private final LongAdder scriptsExecuted = new LongAdder();
+    private final LongAdder scriptNanos = new LongAdder();
+    private final LongAdder statementsExecuted = new LongAdder();
+    private final LongAdder functionCalls = new LongAdder();
+    private final LongAdder instancesAllocated = new LongAdder();
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyNext;
+    private int latencyCount;
+
+    InterpreterMetrics(final CallStack callStack) {
+        this.callStack = callStack;
+    }
+
+    void scriptExecuted(long nanos) {
+        scriptsExecuted.increment();
+        scriptNanos.add(nanos);
+
+        synchronized (latencies) {
+            latencies[latencyNext] = nanos;
+            latencyNext = (latencyNext + 1) & (LATENCY_SAMPLES - 1);
+            if (latencyCount < LATENCY_SAMPLES) latencyCount++;
+        }
+    }
+
+    void statementExecuted() {
+        statementsExecuted.increment();
+    }
+
+    void functionCalled() {
+        functionCalls.increment();
+    }
+
+    void instanceAllocated() {
+        instancesAllocated.increment();
+    }
+
+    @Override
+    public long getScriptsExecuted() {
+        return scriptsExecuted.sum();
+    }
+
+    @Override
+    public long getStatementsExecuted() {
+        return statementsExecuted.sum();
+    }
+
+    @Override
+    public long getFunctionCalls() {
+        return functionCalls.sum();
+    }
+
+    @Override
+    public long getInstancesAllocated() {
+        return instancesAllocated.sum();
+    }
+
+    @Override
+    public double getAverageScriptMillis() {
+        long scripts = scriptsExecuted.sum();
+        return scripts == 0 ? 0 : scriptNanos.sum() / 1_000_000.0 / scripts;
+    }
+
+    @Override
+    public double getP99ScriptMillis() {
+        long[] sorted;
+        synchronized (latencies) {
+            sorted = Arrays.copyOf(latencies, latencyCount);
+        }
+
+        if (sorted.length == 0) return 0;
+        Arrays.sort(sorted);
+        int index = (int)Math.ceil(sorted.length * 0.99) - 1;
+        return sorted[index] / 1_000_000.0;
+    }
+
+    // The first read starts tracking, so it only counts calls made after it.
+    @Override
+    public int getStackDepth() {
+        callStack.track();
+        return callStack.depth();
+    }
+}
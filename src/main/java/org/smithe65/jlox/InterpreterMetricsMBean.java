@@ -0,0 +1,11 @@
+package org.smithe65.jlox;
+
+public interface InterpreterMetricsMBean {
+    long getScriptsExecuted();
+    long getStatementsExecuted();
+    long getFunctionCalls();
+    long getInstancesAllocated();
+    double getAverageScriptMillis();
+    double getP99ScriptMillis();
+    int getStackDepth();
+}
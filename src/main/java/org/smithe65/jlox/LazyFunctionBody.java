@@ -0,0 +1,71 @@
+package org.smithe65.jlox;
+
+import java.util.AbstractList;
+import java.util.List;
+
+// The body of a function whose tokens were only brace-matched by the parser. It is parsed and
+// resolved the first time anything reads it, which for most code is the function's first call.
+// Trees can be shared between interpreters, so that happens at most once, under a lock.
+public class LazyFunctionBody extends AbstractList<Statement> {
+    private final Token name;
+    private List<Token> tokens;
+    private Resolver.Context context;
+    private volatile List<Statement> statements;
+    private boolean failed = false;
+
+    LazyFunctionBody(final Token name, final List<Token> tokens) {
+        this.name = name;
+        this.tokens = tokens;
+    }
+
+    // Called by the resolver in place of resolving the body, with what it needs to do so later.
+    void deferResolution(Resolver.Context context) {
+        this.context = context;
+    }
+
+    boolean isParsed() {
+        return statements != null;
+    }
+
+    @Override
+    public Statement get(int index) {
+        return statements().get(index);
+    }
+
+    @Override
+    public int size() {
+        return statements().size();
+    }
+
+    private List<Statement> statements() {
+        List<Statement> result = statements;
+        if (result != null) return result;
+
+        synchronized (this) {
+            if (statements == null) {
+                if (failed) throw error();
+
+                ErrorReporter reporter = new ErrorReporter(System.err);
+                List<Statement> body = new Parser(tokens, reporter, true).parseBody();
+                if (!reporter.hadError() && context != null) {
+                    Resolver.resolveDeferred(context, body, reporter);
+                }
+
+                if (reporter.hadError()) {
+                    failed = true;
+                    throw error();
+                }
+
+                tokens = null;
+                context = null;
+                statements = body;
+            }
+
+            return statements;
+        }
+    }
+
+    private RuntimeError error() {
+        return new RuntimeError(name, "Function '" + name.lexeme + "' has errors in its body.");
+    }
+}
@@ -0,0 +1,150 @@
+package org.smithe65.jlox;
+
+import java.util.List;
+
+// Finds the source line of a node from the first token it or one of its children carries.
+class LineFinder implements Statement.Visitor<Integer>, Expression.Visitor<Integer> {
+    static final int UNKNOWN = 0;
+
+    int line(Statement statement) {
+        return statement == null ? UNKNOWN : statement.accept(this);
+    }
+
+    int line(Expression expression) {
+        return expression == null ? UNKNOWN : expression.accept(this);
+    }
+
+    private int first(List<? extends Statement> statements) {
+        for (Statement statement : statements) {
+            int line = line(statement);
+            if (line != UNKNOWN) return line;
+        }
+
+        return UNKNOWN;
+    }
+
+    @Override
+    public Integer visitBlockStatement(Statement.Block statement) {
+        return first(statement.statements);
+    }
+
+    @Override
+    public Integer visitClassStatement(Statement.Class statement) {
+        return statement.name.line;
+    }
+
+    @Override
+    public Integer visitExpressionStatement(Statement.Expression statement) {
+        return line(statement.expression);
+    }
+
+    @Override
+    public Integer visitFunctionStatement(Statement.Function statement) {
+        return statement.name.line;
+    }
+
+    @Override
+    public Integer visitIfStatement(Statement.If statement) {
+        return line(statement.condition);
+    }
+
+    @Override
+    public Integer visitImportStatement(Statement.Import statement) {
+        return statement.keyword.line;
+    }
+
+    @Override
+    public Integer visitPrintStatement(Statement.Print statement) {
+        return line(statement.expression);
+    }
+
+    @Override
+    public Integer visitReturnStatement(Statement.Return statement) {
+        return statement.keyword.line;
+    }
+
+    @Override
+    public Integer visitVarStatement(Statement.Var statement) {
+        return statement.name.line;
+    }
+
+    @Override
+    public Integer visitWhileStatement(Statement.While statement) {
+        return statement.keyword.line;
+    }
+
+    @Override
+    public Integer visitArrayExpression(Expression.Array expression) {
+        return expression.bracket.line;
+    }
+
+    @Override
+    public Integer visitAssignExpression(Expression.Assign expression) {
+        return expression.name.line;
+    }
+
+    @Override
+    public Integer visitBinaryExpression(Expression.Binary expression) {
+        return expression.operator.line;
+    }
+
+    @Override
+    public Integer visitCallExpression(Expression.Call expression) {
+        return expression.paren.line;
+    }
+
+    @Override
+    public Integer visitGetExpression(Expression.Get expression) {
+        return expression.name.line;
+    }
+
+    @Override
+    public Integer visitGroupingExpression(Expression.Grouping expression) {
+        return line(expression.expression);
+    }
+
+    @Override
+    public Integer visitIndexExpression(Expression.Index expression) {
+        return expression.bracket.line;
+    }
+
+    @Override
+    public Integer visitIndexSetExpression(Expression.IndexSet expression) {
+        return expression.bracket.line;
+    }
+
+    @Override
+    public Integer visitLiteralExpression(Expression.Literal expression) {
+        return UNKNOWN;
+    }
+
+    @Override
+    public Integer visitLogicalExpression(Expression.Logical expression) {
+        return expression.operator.line;
+    }
+
+    @Override
+    public Integer visitMapExpression(Expression.Map expression) {
+        return expression.brace.line;
+    }
+
+    @Override
+    public Integer visitSetExpression(Expression.Set expression) {
+        return expression.name.line;
+    }
+
+    @Override
+    public Integer visitThisExpression(Expression.This expression) {
+        return expression.keyword.line;
+    }
+
+    @Override
+    public Integer visitUnaryExpression(Expression.Unary expression) {
+        return expression.operator.line;
+    }
+
+    @Override
+    public Integer visitVariableExpression(Expression.Variable expression) {
+        return expression.name.line;
+    }
+}
@@ -0,0 +1,450 @@
+package org.smithe65.jlox;
+
+import java.util.List;
+
+// A hot while loop compiled into a tree of nodes specialized for the types seen while one
+// iteration of it was recorded. Arithmetic that only saw numbers runs on unboxed doubles.
+// Those subtrees have no side effects and guard every value they read, so when a guard fails
+// the interpreter re-evaluates the original expression and the result is the same as if the
+// trace had never run. Anything that isn't specialized is handed back to the interpreter.
+final class LoopTrace {
+    // Back-edges a loop runs before one of its iterations is recorded and compiled.
+    static final int HOT_LOOP = 1000;
+
+    // Guard failures after which the trace is dropped and the loop goes back to the interpreter.
+    static final int MAX_GUARD_FAILURES = 1024;
+
+    private static final GuardFailure GUARD_FAILURE = new GuardFailure();
+
+    private final Value condition;
+    private final Step body;
+    private int guardFailures = 0;
+
+    LoopTrace(Statement.While loop, TypeProfile profile, GlobalEnvironment globals) {
+        Compiler compiler = new Compiler(profile, globals);
+        condition = compiler.value(loop.condition);
+        body = compiler.step(loop.body);
+    }
+
+    // Runs what is left of a loop that was interpreted up to the end of an iteration. Returns
+    // false if the trace gave up on the loop, leaving the interpreter to start the next one.
+    boolean run(Interpreter interpreter, Statement.While loop) {
+        while (condition.test(interpreter)) {
+            body.run(interpreter);
+            interpreter.tick(loop.keyword);
+
+            if (guardFailures > MAX_GUARD_FAILURES) return false;
+        }
+
+        return true;
+    }
+
+    // What one interpreter knows about one loop. The trace is compiled from that interpreter's
+    // types, so it isn't shared with others running the same tree.
+    static final class State {
+        int hotness = 0;
+        LoopTrace trace = null;
+    }
+
+    private static class GuardFailure extends RuntimeException {
+        GuardFailure() {
+            super(null, null, false, false);
+        }
+    }
+
+    // Numeric expressions without side effects, evaluated unboxed.
+    private abstract static class Number {
+        abstract double number(Interpreter interpreter);
+    }
+
+    private abstract static class Value {
+        abstract Object evaluate(Interpreter interpreter);
+
+        boolean test(Interpreter interpreter) {
+            return interpreter.isTruthy(evaluate(interpreter));
+        }
+    }
+
+    private abstract static class Step {
+        // Counted like Interpreter.execute counts a statement.
+        void run(Interpreter interpreter) {
+            execute(interpreter);
+        }
+
+        abstract void execute(Interpreter interpreter);
+    }
+
+    private static final class Constant extends Number {
+        private final double value;
+
+        Constant(double value) {
+            this.value = value;
+        }
+
+        @Override
+        double number(Interpreter interpreter) {
+            return value;
+        }
+    }
+
+    private static final class LocalNumber extends Number {
+        private final int depth;
+        private final String name;
+
+        LocalNumber(int depth, String name) {
+            this.depth = depth;
+            this.name = name;
+        }
+
+        @Override
+        double number(Interpreter interpreter) {
+            if (interpreter.environment.getAt(depth, name) instanceof Double value) return value;
+            throw GUARD_FAILURE;
+        }
+    }
+
+    private static final class GlobalNumber extends Number {
+        private final int slot;
+        private final Token name;
+
+        GlobalNumber(int slot, Token name) {
+            this.slot = slot;
+            this.name = name;
+        }
+
+        @Override
+        double number(Interpreter interpreter) {
+            if (interpreter.globals.get(slot, name) instanceof Double value) return value;
+            throw GUARD_FAILURE;
+        }
+    }
+
+    private static final class Negate extends Number {
+        private final Number operand;
+
+        Negate(Number operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        double number(Interpreter interpreter) {
+            return -operand.number(interpreter);
+        }
+    }
+
+    private static final class Arithmetic extends Number {
+        private final TokenType operator;
+        private final Number left;
+        private final Number right;
+
+        Arithmetic(TokenType operator, Number left, Number right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double number(Interpreter interpreter) {
+            double a = left.number(interpreter);
+            double b = right.number(interpreter);
+
+            switch (operator) {
+                case PLUS: return a + b;
+                case MINUS: return a - b;
+                case STAR: return a * b;
+                default: return a / b;
+            }
+        }
+    }
+
+    // Where a numeric subtree meets code that needs an object. Re-running the original
+    // expression on a guard failure is safe because numeric subtrees have no side effects.
+    private final class Boxed extends Value {
+        private final Number number;
+        private final Expression original;
+
+        Boxed(Number number, Expression original) {
+            this.number = number;
+            this.original = original;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter) {
+            try {
+                return number.number(interpreter);
+            } catch (GuardFailure e) {
+                guardFailures++;
+                return interpreter.evaluate(original);
+            }
+        }
+    }
+
+    private final class Compare extends Value {
+        private final TokenType operator;
+        private final Number left;
+        private final Number right;
+        private final Expression original;
+
+        Compare(TokenType operator, Number left, Number right, Expression original) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+            this.original = original;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter) {
+            return test(interpreter);
+        }
+
+        @Override
+        boolean test(Interpreter interpreter) {
+            double a;
+            double b;
+            try {
+                a = left.number(interpreter);
+                b = right.number(interpreter);
+            } catch (GuardFailure e) {
+                guardFailures++;
+                return interpreter.isTruthy(interpreter.evaluate(original));
+            }
+
+            switch (operator) {
+                case LESS: return a < b;
+                case LESS_EQUAL: return a <= b;
+                case GREATER: return a > b;
+                default: return a >= b;
+            }
+        }
+    }
+
+    private static final class Assign extends Value {
+        private final Expression.Assign expression;
+        private final Value value;
+
+        Assign(Expression.Assign expression, Value value) {
+            this.expression = expression;
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter) {
+            Object result = value.evaluate(interpreter);
+            interpreter.assign(expression, result);
+            return result;
+        }
+    }
+
+    private static final class InterpretedValue extends Value {
+        private final Expression expression;
+
+        InterpretedValue(Expression expression) {
+            this.expression = expression;
+        }
+
+        @Override
+        Object evaluate(Interpreter interpreter) {
+            return interpreter.evaluate(expression);
+        }
+    }
+
+    private static final class Evaluate extends Step {
+        private final Value value;
+
+        Evaluate(Value value) {
+            this.value = value;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            value.evaluate(interpreter);
+        }
+    }
+
+    private static final class Block extends Step {
+        private final Step[] steps;
+
+        Block(Step[] steps) {
+            this.steps = steps;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            Environment previous = interpreter.enterScope();
+
+            try {
+                for (Step step : steps) {
+                    step.run(interpreter);
+                }
+            } finally {
+                interpreter.exitScope(previous);
+            }
+        }
+    }
+
+    private static final class If extends Step {
+        private final Value condition;
+        private final Step thenBranch;
+        private final Step elseBranch;
+
+        If(Value condition, Step thenBranch, Step elseBranch) {
+            this.condition = condition;
+            this.thenBranch = thenBranch;
+            this.elseBranch = elseBranch;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            if (condition.test(interpreter)) {
+                thenBranch.run(interpreter);
+            } else if (elseBranch != null) {
+                elseBranch.run(interpreter);
+            }
+        }
+    }
+
+    // A loop nested in the traced one, compiled along with it.
+    private static final class While extends Step {
+        private final Value condition;
+        private final Step body;
+        private final Token keyword;
+
+        While(Value condition, Step body, Token keyword) {
+            this.condition = condition;
+            this.body = body;
+            this.keyword = keyword;
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            while (condition.test(interpreter)) {
+                body.run(interpreter);
+                interpreter.tick(keyword);
+            }
+        }
+    }
+
+    private static final class InterpretedStep extends Step {
+        private final Statement statement;
+
+        InterpretedStep(Statement statement) {
+            this.statement = statement;
+        }
+
+        @Override
+        void run(Interpreter interpreter) {
+            interpreter.execute(statement);
+        }
+
+        @Override
+        void execute(Interpreter interpreter) {
+            statement.accept(interpreter);
+        }
+    }
+
+    private final class Compiler {
+        private final TypeProfile profile;
+        private final GlobalEnvironment globals;
+
+        Compiler(TypeProfile profile, GlobalEnvironment globals) {
+            this.profile = profile;
+            this.globals = globals;
+        }
+
+        // Only statements that lead to specialized expressions get steps of their own. The
+        // rest, and everything a step doesn't specialize, is run by the interpreter.
+        Step step(Statement statement) {
+            switch (statement) {
+                case Statement.Expression expression: {
+                    Value value = value(expression.expression);
+                    return value instanceof InterpretedValue ? new InterpretedStep(statement) : new Evaluate(value);
+                }
+                case Statement.Block block:
+                    return new Block(steps(block.statements));
+                case Statement.If ifStatement:
+                    return new If(value(ifStatement.condition), step(ifStatement.thenBranch),
+                            ifStatement.elseBranch != null ? step(ifStatement.elseBranch) : null);
+                case Statement.While loop:
+                    return new While(value(loop.condition), step(loop.body), loop.keyword);
+                default:
+                    return new InterpretedStep(statement);
+            }
+        }
+
+        private Step[] steps(List<Statement> statements) {
+            Step[] steps = new Step[statements.size()];
+            for (int i = 0; i < steps.length; i++) {
+                steps[i] = step(statements.get(i));
+            }
+
+            return steps;
+        }
+
+        Value value(Expression expression) {
+            switch (expression) {
+                case Expression.Grouping grouping:
+                    return value(grouping.expression);
+                case Expression.Assign assign: {
+                    Value value = value(assign.value);
+                    return value instanceof InterpretedValue ? new InterpretedValue(assign) : new Assign(assign, value);
+                }
+                case Expression.Binary binary: {
+                    if (isComparison(binary.operator.type)) {
+                        Number left = number(binary.left);
+                        Number right = number(binary.right);
+                        if (left != null && right != null) {
+                            return new Compare(binary.operator.type, left, right, binary);
+                        }
+                    }
+
+                    Number number = number(binary);
+                    return number != null ? new Boxed(number, binary) : new InterpretedValue(binary);
+                }
+                case Expression.Unary unary: {
+                    Number number = number(unary);
+                    return number != null ? new Boxed(number, unary) : new InterpretedValue(unary);
+                }
+                default:
+                    return new InterpretedValue(expression);
+            }
+        }
+
+        // The expression as unboxed arithmetic, or null if it might not produce a number or
+        // might have side effects.
+        private Number number(Expression expression) {
+            switch (expression) {
+                case Expression.Literal literal:
+                    return literal.value instanceof Double value ? new Constant(value) : null;
+                case Expression.Variable variable:
+                    return variable.depth >= 0
+                            ? new LocalNumber(variable.depth, variable.name.lexeme)
+                            : new GlobalNumber(globals.slotFor(variable.name.lexeme), variable.name);
+                case Expression.Grouping grouping:
+                    return number(grouping.expression);
+                case Expression.Unary unary: {
+                    if (unary.operator.type != TokenType.MINUS) return null;
+                    Number operand = number(unary.right);
+                    return operand != null ? new Negate(operand) : null;
+                }
+                case Expression.Binary binary: {
+                    TokenType operator = binary.operator.type;
+                    boolean arithmetic = operator == TokenType.MINUS || operator == TokenType.STAR
+                            || operator == TokenType.SLASH
+                            || (operator == TokenType.PLUS && profile.numeric(binary));
+                    if (!arithmetic) return null;
+
+                    Number left = number(binary.left);
+                    Number right = number(binary.right);
+                    return left != null && right != null ? new Arithmetic(operator, left, right) : null;
+                }
+                default:
+                    return null;
+            }
+        }
+
+        private boolean isComparison(TokenType operator) {
+            return operator == TokenType.LESS || operator == TokenType.LESS_EQUAL
+                    || operator == TokenType.GREATER || operator == TokenType.GREATER_EQUAL;
+        }
+    }
+}
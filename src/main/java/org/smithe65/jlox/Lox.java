@@ -7,90 +7,351 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
 
 public class Lox {
-    private static boolean hadError = false;
+    private static final ErrorReporter reporter = new ErrorReporter(System.err);
     private static boolean hadRuntimeError;
-    private static final Interpreter interpreter = new Interpreter();
-
-    public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+    private static Interpreter interpreter;
+    private static final long DEFAULT_STACK_SIZE = 256L * 1024 * 1024;
+    private static final int DEFAULT_MEMO_CAPACITY = 1024;
+    private static final String DEFAULT_PROFILE_OUTPUT = "lox-profile.folded";
+    private static Path profileOutput;
+    private static int profileRate = 1000;
+    private static int memoCapacity = 0;
+    private static boolean hotLines = false;
+    private static long maxSteps = Long.MAX_VALUE;
+    private static Duration timeout = Duration.ZERO;
+    private static long maxMemory = Long.MAX_VALUE;
+    private static boolean compileOnly = false;
+    private static boolean lazyFunctions = false;
+    private static boolean flat = false;
+    private static boolean switchDispatch = false;
+    private static boolean traceLoops = false;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String script = null;
+        List<String> files = new ArrayList<>();
+        long stackSize = DEFAULT_STACK_SIZE;
+
+        for (String arg : args) {
+            if (arg.startsWith("--stack-size=")) {
+                stackSize = parseMegabytes(arg.substring("--stack-size=".length()));
+            } else if (arg.equals("--profile")) {
+                profileOutput = Paths.get(DEFAULT_PROFILE_OUTPUT);
+            } else if (arg.startsWith("--profile=")) {
+                profileOutput = Paths.get(arg.substring("--profile=".length()));
+            } else if (arg.startsWith("--profile-rate=")) {
+                profileRate = parseCount(arg.substring("--profile-rate=".length()));
+                if (profileRate <= 0) usage();
+            } else if (arg.equals("--memoize")) {
+                memoCapacity = DEFAULT_MEMO_CAPACITY;
+            } else if (arg.startsWith("--memoize=")) {
+                memoCapacity = parseCount(arg.substring("--memoize=".length()));
+            } else if (arg.startsWith("--max-steps=")) {
+                maxSteps = parseNumber(arg.substring("--max-steps=".length()));
+            } else if (arg.startsWith("--timeout=")) {
+                timeout = Duration.ofMillis(parseNumber(arg.substring("--timeout=".length())));
+            } else if (arg.startsWith("--max-memory=")) {
+                maxMemory = parseMegabytes(arg.substring("--max-memory=".length()));
+            } else if (arg.equals("--hot-lines")) {
+                hotLines = true;
+            } else if (arg.equals("--switch-dispatch")) {
+                switchDispatch = true;
+            } else if (arg.equals("--loop-traces")) {
+                traceLoops = true;
+            } else if (arg.equals("--flat")) {
+                flat = true;
+            } else if (arg.equals("--lazy-functions")) {
+                lazyFunctions = true;
+            } else if (arg.equals("--compile")) {
+                compileOnly = true;
+            } else if (!arg.startsWith("--")) {
+                if (script == null) script = arg;
+                files.add(arg);
+            } else {
+                usage();
+            }
+        }
+
+        if (compileOnly) {
+            compileFiles(files);
+            return;
+        }
+
+        if (files.size() > 1) usage();
+
+        ModuleCache.setLazyFunctions(lazyFunctions);
+
+        // Instrumentation lives in a subclass so uninstrumented runs never pay for it.
+        if (hotLines) {
+            interpreter = new InstrumentedInterpreter();
+        } else if (flat) {
+            interpreter = new FlatInterpreter();
+        } else if (switchDispatch) {
+            interpreter = new SwitchInterpreter();
         } else {
-            runPrompt();
+            interpreter = new Interpreter();
+        }
+
+        interpreter.setMemoCapacity(memoCapacity);
+        interpreter.setTraceLoops(traceLoops);
+        interpreter.setStepBudget(maxSteps);
+        interpreter.setTimeout(timeout);
+        interpreter.setMemoryLimit(maxMemory);
+
+        // Lox calls recurse on the Java stack, so give the interpreter its own thread with a
+        // stack sized for deep recursion instead of raising -Xss for every thread in the JVM.
+        String fileName = script;
+        Throwable[] failure = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                if (fileName != null) {
+                    runFile(fileName);
+                } else {
+                    runPrompt();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                failure[0] = e;
+            }
+        }, "lox-interpreter", stackSize);
+
+        thread.start();
+        thread.join();
+
+        if (failure[0] instanceof IOException e) throw e;
+        if (failure[0] != null) {
+            // Anything else escaping the interpreter is a bug in it, not an error in the script.
+            failure[0].printStackTrace();
+            System.exit(70);
+        }
+    }
+
+    private static long parseMegabytes(String value) {
+        long megabytes = parseCount(value);
+        if (megabytes <= 0) usage();
+        return megabytes * 1024L * 1024L;
+    }
+
+    private static int parseCount(String value) {
+        try {
+            return Math.toIntExact(parseNumber(value));
+        } catch (ArithmeticException e) {
+            usage();
+            return 0;
         }
     }
 
-    private static void runFile(String fileName) throws IOException {
+    private static long parseNumber(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            usage();
+            return 0;
+        }
+    }
+
+    private static void usage() {
+        System.out.println("Usage: jlox [--stack-size=<megabytes>] [--memoize[=<entries>]]"
+                + " [--profile[=<file>]] [--profile-rate=<hz>] [--hot-lines] [--lazy-functions]"
+                + " [--flat] [--switch-dispatch] [--loop-traces]"
+                + " [--max-steps=<steps>] [--timeout=<milliseconds>] [--max-memory=<megabytes>] [script]");
+        System.out.println("       jlox --compile <file or directory>...");
+        System.exit(64);
+    }
+
+    // Compiles without running, once sequentially and once in parallel, to report errors and
+    // how much the batch compiler gains on this machine.
+    private static void compileFiles(List<String> names) throws IOException {
+        if (names.isEmpty()) usage();
+
+        List<Path> paths = new ArrayList<>();
+        for (String name : names) {
+            Path path = Paths.get(name);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> walk = Files.walk(path)) {
+                    walk.filter(file -> file.toString().endsWith(".lox")).sorted().forEach(paths::add);
+                }
+            } else {
+                paths.add(path);
+            }
+        }
+
+        if (paths.isEmpty()) {
+            System.out.println("No .lox files to compile.");
+            return;
+        }
+
+        // The first pass also warms up the JIT so neither timed pass pays for it.
+        BatchCompiler compiler = new BatchCompiler();
+        compiler.compile(paths);
+
+        long start = System.nanoTime();
+        BatchCompiler.compileSequentially(paths);
+        long sequential = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        List<BatchCompiler.Result> results = compiler.compile(paths);
+        long parallel = System.nanoTime() - start;
+
+        int failed = 0;
+        for (BatchCompiler.Result result : results) {
+            if (result.errors().isEmpty()) continue;
+
+            failed++;
+            System.err.println(result.path() + ":");
+            result.errors().forEach(System.err::println);
+        }
+
+        System.out.printf("Compiled %d files (%d with errors)%n", paths.size(), failed);
+        System.out.printf("Sequential: %.1f ms, parallel: %.1f ms (%.2fx speedup, %d threads)%n",
+                sequential / 1e6, parallel / 1e6, (double)sequential / parallel,
+                ForkJoinPool.commonPool().getParallelism());
+
+        if (failed > 0) System.exit(64);
+    }
+
+    private static void runFile(String fileName) throws IOException, InterruptedException {
         Path path = Paths.get(fileName);
         System.out.println("Reading file: " + path.toAbsolutePath());
         byte[] bytes = Files.readAllBytes(path);
-        run(new String(bytes, Charset.defaultCharset()));
+        String source = new String(bytes, Charset.defaultCharset());
+        interpreter.setDirectory(path.toAbsolutePath().getParent());
+
+        Profiler profiler = null;
+        if (profileOutput != null) {
+            profiler = new Profiler(interpreter.callStack(), profileRate);
+            profiler.start();
+        }
+
+        try {
+            run(source, new Resolver(reporter));
+        } finally {
+            interpreter.close();
+        }
+
+        if (interpreter instanceof InstrumentedInterpreter instrumented) {
+            instrumented.report(source, System.out);
+        }
+
+        if (profiler != null) {
+            profiler.stop();
+            profiler.write(profileOutput);
+            System.out.println("Profile written to: " + profileOutput.toAbsolutePath());
+        }
+
+        if (interpreter.memory().isLimited()) {
+            System.out.println("Peak memory: " + interpreter.memory().peak() + " bytes");
+        }
+
+        interpreter.memoCaches().forEach((name, memo) ->
+                System.out.println("Memoized " + name + ": " + memo));
 
-        if (hadError) System.exit(64);
+        if (reporter.hadError()) System.exit(64);
         if (hadRuntimeError) System.exit(70);
     }
 
+    // Each entry is compiled on its own. What carries over between entries is the interpreter's
+    // global environment, which keeps the slots it has given out for the whole session.
     private static void runPrompt() throws IOException {
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
+        StringBuilder entry = new StringBuilder();
 
-        for (;;) {
-            hadError = false;
-            System.out.print("> ");
-            String line = reader.readLine();
+        try {
+            for (;;) {
+                System.out.print(entry.isEmpty() ? "> " : "... ");
+                String line = reader.readLine();
 
-            if (line == null) {
-                break;
+                if (line == null) {
+                    break;
+                }
+
+                entry.append(line).append('\n');
+
+                // A blank line submits an unfinished entry so its errors get reported.
+                if (!line.isBlank() && isIncomplete(entry)) {
+                    continue;
+                }
+
+                reporter.reset();
+                run(entry.toString(), new Resolver(reporter));
+                entry.setLength(0);
             }
+        } finally {
+            interpreter.close();
+        }
+    }
+
+    // An entry continues onto the next line while a bracket or string is still open.
+    private static boolean isIncomplete(CharSequence source) {
+        ErrorReporter probe = new ErrorReporter();
+        int depth = 0;
 
-            run(line);
+        for (Token token : new Scanner(source.toString(), probe).scanTokens()) {
+            switch (token.type) {
+                case LEFT_PARENTHESIS:
+                case LEFT_BRACE:
+                case LEFT_BRACKET:
+                    depth++;
+                    break;
+                case RIGHT_PARENTHESIS:
+                case RIGHT_BRACE:
+                case RIGHT_BRACKET:
+                    depth--;
+                    break;
+                default:
+                    break;
+            }
         }
+
+        return depth > 0 || probe.errors().stream().anyMatch(error -> error.endsWith("Unterminated string."));
     }
 
-    private static void run(String source) {
+    private static void run(String source, Resolver resolver) {
         System.out.println("Scanning...");
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+        LoxEvents.Phase phase = new LoxEvents.Phase("scan");
+        phase.begin();
+        List<Token> tokens = ParallelScanner.scan(source, reporter);
+        phase.commit();
+
         System.out.println("Parsing...");
-        Parser parser = new Parser(tokens);
+        phase = new LoxEvents.Phase("parse");
+        phase.begin();
+        Parser parser = new Parser(tokens, reporter, lazyFunctions);
         List<Statement> statements = parser.parse();
+        phase.commit();
 
-        if (hadError) return;
+        if (reporter.hadError()) return;
 
         System.out.println("Resolving...");
-        Resolver resolver = new Resolver(interpreter);
+        phase = new LoxEvents.Phase("resolve");
+        phase.begin();
         resolver.resolve(statements);
+        phase.commit();
 
-        if (hadError) return;
+        if (reporter.hadError()) return;
 
         System.out.println("Running...");
+        phase = new LoxEvents.Phase("run");
+        phase.begin();
         interpreter.interpret(statements);
+        phase.commit();
     }
 
-    public static void error(int line, String message) {
-        report(line, "", message);
-    }
-
-    public static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end ", message);
+    public static void runtimeError(RuntimeError error) {
+        if (error.token == null) {
+            System.err.println(error.getMessage());
         } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+            System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
         }
-    }
 
-    public static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
         hadRuntimeError = true;
     }
-
-    private static void report(int line, String where, String message) {
-        System.err.println("[line " + line + "] " + where + ": " + message);
-        hadError = true;
-    }
 }
@@ -0,0 +1,122 @@
+package org.smithe65.jlox;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Arrays start out storing numbers unboxed and switch to object storage the first time
+// anything other than a number is stored in them.
+public class LoxArray {
+    private double[] numbers;
+    private Object[] objects;
+    private int size;
+
+    LoxArray(int capacity) {
+        numbers = new double[Math.max(capacity, 8)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    Object get(int index) {
+        if (objects != null) return objects[index];
+        return numbers[index];
+    }
+
+    void add(Object value) {
+        if (size == capacity()) grow();
+        size++;
+        store(size - 1, value);
+    }
+
+    Object get(Token name) {
+        return switch (name.lexeme) {
+            case "length" -> (double)size;
+            case "push" -> new NativeMethod(name, 1) {
+                @Override
+                public Object call(Interpreter interpreter, List<Object> arguments) {
+                    interpreter.memory().allocate(name, MemoryAccount.SLOT);
+                    add(arguments.get(0));
+                    return null;
+                }
+            };
+            case "pop" -> new NativeMethod(name, 0) {
+                @Override
+                public Object call(Interpreter interpreter, List<Object> arguments) {
+                    if (size == 0) throw new RuntimeError(name, "Can't pop from an empty array.");
+                    Object value = get(size - 1);
+                    if (objects != null) objects[size - 1] = null;
+                    size--;
+                    return value;
+                }
+            };
+            default -> throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        };
+    }
+
+    Object get(Token bracket, Object index) {
+        return get(checkIndex(bracket, index));
+    }
+
+    void set(Token bracket, Object index, Object value) {
+        store(checkIndex(bracket, index), value);
+    }
+
+    private int checkIndex(Token bracket, Object index) {
+        if (!(index instanceof Double number) || number != Math.floor(number)) {
+            throw new RuntimeError(bracket, "Array index must be an integer.");
+        }
+
+        if (number < 0 || number >= size) {
+            throw new RuntimeError(bracket, "Array index out of bounds.");
+        }
+
+        return number.intValue();
+    }
+
+    private void store(int index, Object value) {
+        if (objects == null) {
+            if (value instanceof Double number) {
+                numbers[index] = number;
+                return;
+            }
+
+            generalize();
+        }
+
+        objects[index] = value;
+    }
+
+    private int capacity() {
+        return objects != null ? objects.length : numbers.length;
+    }
+
+    private void grow() {
+        int capacity = capacity() * 2;
+        if (objects != null) {
+            objects = Arrays.copyOf(objects, capacity);
+        } else {
+            numbers = Arrays.copyOf(numbers, capacity);
+        }
+    }
+
+    private void generalize() {
+        objects = new Object[numbers.length];
+        for (int i = 0; i < size; i++) {
+            objects[i] = numbers[i];
+        }
+
+        numbers = null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append(Interpreter.stringify(get(i)));
+        }
+
+        return builder.append("]").toString();
+    }
+}
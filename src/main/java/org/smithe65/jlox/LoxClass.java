@@ -27,7 +27,16 @@ public class LoxClass implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        interpreter.memory().allocate(null, MemoryAccount.INSTANCE);
         LoxInstance instance = new LoxInstance(this);
+        interpreter.metrics().instanceAllocated();
+
+        LoxEvents.InstanceAllocation event = new LoxEvents.InstanceAllocation();
+        if (event.isEnabled()) {
+            event.className = name;
+            event.commit();
+        }
+
         return instance;
     }
 
@@ -0,0 +1,64 @@
+package org.smithe65.jlox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// Flight Recorder events describing Lox execution. Each is cheap to construct when disabled:
+// callers only fill in fields after shouldCommit() or isEnabled() says the event will be kept.
+final class LoxEvents {
+    private LoxEvents() {}
+
+    @Name("org.smithe65.jlox.FunctionCall")
+    @Label("Lox Function Call")
+    @Description("A Lox function call that ran longer than the threshold")
+    @Category("Lox")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static class FunctionCall extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("Arguments")
+        int arguments;
+    }
+
+    @Name("org.smithe65.jlox.InstanceAllocation")
+    @Label("Lox Instance Allocation")
+    @Category("Lox")
+    @StackTrace(false)
+    static class InstanceAllocation extends Event {
+        @Label("Class")
+        String className;
+    }
+
+    @Name("org.smithe65.jlox.Phase")
+    @Label("Lox Phase")
+    @Description("Scanning, parsing, resolving or running one script")
+    @Category("Lox")
+    @StackTrace(false)
+    static class Phase extends Event {
+        @Label("Phase")
+        String phase;
+
+        Phase(String phase) {
+            this.phase = phase;
+        }
+    }
+
+    @Name("org.smithe65.jlox.ScriptError")
+    @Label("Lox Runtime Error")
+    @Category("Lox")
+    @StackTrace(false)
+    static class ScriptError extends Event {
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+    }
+}
@@ -1,42 +1,149 @@
 package org.smithe65.jlox;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 
+// Functions made by the tree interpreter run their declaration. Functions made by FlatInterpreter
+// run its compiled form instead, so they hold on to no part of the tree.
 public class LoxFunction implements LoxCallable {
     private final Statement.Function declaration;
+    private final FlatAst.Function compiled;
     private final Environment closure;
+    private final MemoCache memo;
 
     LoxFunction(Statement.Function declaration, Environment closure) {
+        this(declaration, closure, null);
+    }
+
+    LoxFunction(Statement.Function declaration, Environment closure, MemoCache memo) {
+        this(declaration, null, closure, memo);
+    }
+
+    LoxFunction(FlatAst.Function compiled, Environment closure, MemoCache memo) {
+        this(null, compiled, closure, memo);
+    }
+
+    private LoxFunction(Statement.Function declaration, FlatAst.Function compiled, Environment closure,
+                        MemoCache memo) {
         this.declaration = declaration;
+        this.compiled = compiled;
         this.closure = closure;
+        this.memo = memo;
     }
 
     LoxFunction bind(LoxInstance instance) {
         Environment environment = new Environment(closure);
         environment.define("this", instance);
-        return new LoxFunction(declaration, environment);
+        return new LoxFunction(declaration, compiled, environment, null);
+    }
+
+    private String name() {
+        return compiled != null ? compiled.name : declaration.name.lexeme;
+    }
+
+    private String parameter(int index) {
+        return compiled != null ? compiled.parameters[index] : declaration.parameters.get(index).lexeme;
+    }
+
+    private void execute(Interpreter interpreter, Environment environment) {
+        if (compiled != null) {
+            // Only FlatInterpreter makes compiled functions.
+            ((FlatInterpreter)interpreter).executeFunction(compiled, environment);
+        } else {
+            interpreter.executeBlock(declaration.body, environment);
+        }
     }
 
     @Override
-    public int arity() { return declaration.parameters.size(); }
+    public int arity() {
+        return compiled != null ? compiled.parameters.length : declaration.parameters.size();
+    }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < arguments.size(); ++i) {
-            environment.define(declaration.parameters.get(i).lexeme, arguments.get(i));
-        }
+        CallStack callStack = interpreter.callStack();
+        boolean tracked = callStack.isTracked();
+        if (tracked) callStack.push(name());
+
+        LoxEvents.FunctionCall event = new LoxEvents.FunctionCall();
+        event.begin();
 
         try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            return returnValue.value;
+            return run(interpreter, arguments, tracked);
+        } finally {
+            if (tracked) callStack.pop();
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.function = name();
+                event.arguments = arguments.size();
+                event.commit();
+            }
+        }
+    }
+
+    private Object run(Interpreter interpreter, List<Object> arguments, boolean tracked) {
+        LoxFunction function = this;
+        Deque<PendingResult> pending = null;
+        Object result;
+
+        // Tail calls unwind to here and are run by the next iteration instead of a nested call.
+        while (true) {
+            if (function.memo != null) {
+                Object cached = function.memo.get(arguments);
+                if (cached != MemoCache.MISS) {
+                    result = cached;
+                    break;
+                }
+
+                // Long tail call chains would evict their own early entries anyway, so only
+                // the most recent ones are kept to hold the chain in bounded memory.
+                if (pending == null) pending = new ArrayDeque<>();
+                pending.addLast(new PendingResult(function.memo, arguments));
+                if (pending.size() > function.memo.capacity()) pending.removeFirst();
+            }
+
+            interpreter.metrics().functionCalled();
+
+            long size = MemoryAccount.environment(arguments.size());
+            interpreter.memory().allocate(null, size);
+
+            Environment environment = new Environment(function.closure);
+            for (int i = 0; i < arguments.size(); ++i) {
+                environment.define(function.parameter(i), arguments.get(i));
+            }
+
+            try {
+                function.execute(interpreter, environment);
+                result = null;
+                break;
+            } catch (TailCall tailCall) {
+                function = tailCall.function;
+                arguments = tailCall.arguments;
+                if (tracked) interpreter.callStack().replace(function.name());
+            } catch (Return returnValue) {
+                result = returnValue.value;
+                break;
+            } finally {
+                interpreter.memory().release(size);
+            }
         }
-        return null;
+
+        // Every memoized function in a tail call chain returns the same final result.
+        if (pending != null) {
+            for (PendingResult entry : pending) {
+                entry.memo.put(entry.arguments, result);
+            }
+        }
+
+        return result;
     }
 
+    private record PendingResult(MemoCache memo, List<Object> arguments) {}
+
     @Override
     public String toString() {
-        return "<fn " + declaration.name + ">";
+        return "<fn " + name() + ">";
     }
 }
@@ -25,8 +25,11 @@ public class LoxInstance {
         throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
     }
 
-    void set(Token name, Object value) {
+    // Returns whether this added a new field.
+    boolean set(Token name, Object value) {
+        int before = fields.size();
         fields.put(name.lexeme, value);
+        return fields.size() > before;
     }
 
     @Override
@@ -0,0 +1,175 @@
+package org.smithe65.jlox;
+
+import java.util.List;
+
+// An open-addressing hash table with linear probing over parallel key and value arrays, so an
+// entry costs two array slots instead of a HashMap node. Numbers hash on their bits, strings on
+// their cached String hash and everything else (instances, functions, ...) on identity.
+public class LoxMap {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private Object[] keys = new Object[INITIAL_CAPACITY];
+    private Object[] values = new Object[INITIAL_CAPACITY];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    Object get(Token bracket, Object key) {
+        int slot = find(checkKey(bracket, key));
+        return slot < 0 ? null : values[slot];
+    }
+
+    // Returns whether this added a new key.
+    boolean set(Token bracket, Object key, Object value) {
+        return put(checkKey(bracket, key), value);
+    }
+
+    Object get(Token name) {
+        return switch (name.lexeme) {
+            case "length" -> (double)size;
+            case "has" -> new NativeMethod(name, 1) {
+                @Override
+                public Object call(Interpreter interpreter, List<Object> arguments) {
+                    return find(checkKey(name, arguments.get(0))) >= 0;
+                }
+            };
+            case "remove" -> new NativeMethod(name, 1) {
+                @Override
+                public Object call(Interpreter interpreter, List<Object> arguments) {
+                    return remove(checkKey(name, arguments.get(0)));
+                }
+            };
+            case "keys" -> new NativeMethod(name, 0) {
+                @Override
+                public Object call(Interpreter interpreter, List<Object> arguments) {
+                    return collect(keys);
+                }
+            };
+            case "values" -> new NativeMethod(name, 0) {
+                @Override
+                public Object call(Interpreter interpreter, List<Object> arguments) {
+                    return collect(values);
+                }
+            };
+            default -> throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+        };
+    }
+
+    private static Object checkKey(Token token, Object key) {
+        if (key == null) throw new RuntimeError(token, "Map key can't be nil.");
+
+        // Concatenated strings are flattened so they match equal literals.
+        if (key instanceof LoxString string) return string.toString();
+        return key;
+    }
+
+    private static int hash(Object key) {
+        int hash;
+        if (key instanceof Double number) {
+            long bits = Double.doubleToLongBits(number);
+            hash = (int)(bits ^ (bits >>> 32));
+        } else if (key instanceof String || key instanceof Boolean) {
+            hash = key.hashCode();
+        } else {
+            hash = System.identityHashCode(key);
+        }
+
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean same(Object stored, Object key) {
+        if (stored == key) return true;
+        if (stored instanceof Double number && key instanceof Double other) {
+            return Double.doubleToLongBits(number) == Double.doubleToLongBits(other);
+        }
+
+        return (stored instanceof String || stored instanceof Boolean) && stored.equals(key);
+    }
+
+    private int find(Object key) {
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+            if (same(keys[slot], key)) return slot;
+        }
+
+        return -1;
+    }
+
+    private boolean put(Object key, Object value) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != null) {
+            if (same(keys[slot], key)) {
+                values[slot] = value;
+                return false;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length - (keys.length >> 2)) resize();
+        return true;
+    }
+
+    private Object remove(Object key) {
+        int slot = find(key);
+        if (slot < 0) return null;
+
+        Object removed = values[slot];
+        size--;
+
+        // Shift later members of the probe run back so lookups never need tombstones.
+        int mask = keys.length - 1;
+        int hole = slot;
+        for (int next = (slot + 1) & mask; keys[next] != null; next = (next + 1) & mask) {
+            int home = hash(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                hole = next;
+            }
+        }
+
+        keys[hole] = null;
+        values[hole] = null;
+        return removed;
+    }
+
+    private void resize() {
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new Object[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        size = 0;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) put(oldKeys[i], oldValues[i]);
+        }
+    }
+
+    private LoxArray collect(Object[] slots) {
+        LoxArray array = new LoxArray(size);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) array.add(slots[i]);
+        }
+
+        return array;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null) continue;
+            if (builder.length() > 1) builder.append(", ");
+            builder.append(Interpreter.stringify(keys[i])).append(": ").append(Interpreter.stringify(values[i]));
+        }
+
+        return builder.append("}").toString();
+    }
+}
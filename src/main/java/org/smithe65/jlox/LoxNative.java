@@ -0,0 +1,14 @@
+package org.smithe65.jlox;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// Marks a static method to be exposed to scripts by NativeRegistry. Parameters may be double,
+// boolean, String or Object; the Lox name defaults to the method name.
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface LoxNative {
+    String value() default "";
+}
@@ -0,0 +1,61 @@
+package org.smithe65.jlox;
+
+// The result of string concatenation. Concatenations share one growing buffer, each value seeing
+// only its own prefix of it, so appending to the newest value in a chain is done in place and
+// building a string in a loop stays linear. The text is only copied out when it is needed whole.
+public final class LoxString implements CharSequence {
+    private final StringBuilder buffer;
+    private final int length;
+    private String flat;
+
+    private LoxString(final StringBuilder buffer, final int length) {
+        this.buffer = buffer;
+        this.length = length;
+    }
+
+    static LoxString concat(CharSequence left, CharSequence right) {
+        if (left instanceof LoxString rope && rope.length == rope.buffer.length()) {
+            rope.buffer.append(right);
+            return new LoxString(rope.buffer, rope.buffer.length());
+        }
+
+        StringBuilder buffer = new StringBuilder(2 * (left.length() + right.length()));
+        buffer.append(left).append(right);
+        return new LoxString(buffer, buffer.length());
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= length) throw new IndexOutOfBoundsException(index);
+        return buffer.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof LoxString string && toString().equals(string.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) {
+            flat = buffer.substring(0, length);
+        }
+
+        return flat;
+    }
+}
@@ -0,0 +1,75 @@
+package org.smithe65.jlox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MemoCache {
+    static final Object MISS = new Object();
+
+    private final int capacity;
+    private final Map<List<Object>, Object> entries;
+    private boolean enabled = true;
+    private long hits;
+    private long misses;
+
+    MemoCache(final int capacity) {
+        this.capacity = capacity;
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, Object> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    Object get(List<Object> arguments) {
+        if (!enabled) return MISS;
+
+        Object value = entries.getOrDefault(key(arguments), MISS);
+        if (value == MISS) {
+            misses++;
+        } else {
+            hits++;
+        }
+
+        return value;
+    }
+
+    void put(List<Object> arguments, Object value) {
+        if (enabled) entries.put(Collections.unmodifiableList(key(arguments)), value);
+    }
+
+    // Concatenated strings only compare equal to each other, so flatten them to match literals.
+    private static List<Object> key(List<Object> arguments) {
+        List<Object> key = arguments;
+        for (int i = 0; i < arguments.size(); i++) {
+            if (arguments.get(i) instanceof LoxString string) {
+                if (key == arguments) key = new ArrayList<>(arguments);
+                key.set(i, string.toString());
+            }
+        }
+
+        return key;
+    }
+
+    void invalidate() {
+        enabled = false;
+        entries.clear();
+    }
+
+    int capacity() { return capacity; }
+
+    public long hits() { return hits; }
+
+    public long misses() { return misses; }
+
+    public int size() { return entries.size(); }
+
+    @Override
+    public String toString() {
+        return hits + " hits, " + misses + " misses, " + entries.size() + " entries";
+    }
+}
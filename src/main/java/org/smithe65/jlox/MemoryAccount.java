@@ -0,0 +1,58 @@
+package org.smithe65.jlox;
+
+// Approximate heap usage of one script run, in bytes. Environments are released when their scope
+// exits; instances, fields, strings and collection slots are never released because we can't see
+// when the JVM collects them, so for those this is a budget on how much a run may allocate.
+public class MemoryAccount {
+    static final long ENVIRONMENT = 96;
+    static final long VARIABLE = 40;
+    static final long INSTANCE = 64;
+    static final long FIELD = 40;
+    static final long STRING = 24;
+    static final long CHAR = 2;
+    static final long SLOT = 8;
+
+    private long limit = Long.MAX_VALUE;
+    private long used;
+    private long peak;
+
+    void setLimit(long bytes) {
+        limit = bytes;
+    }
+
+    boolean isLimited() {
+        return limit != Long.MAX_VALUE;
+    }
+
+    static long environment(int variables) {
+        return ENVIRONMENT + VARIABLE * variables;
+    }
+
+    // The token may be null when the allocation has no source location of its own; the
+    // interpreter fills in the call site before the error is reported.
+    void allocate(Token token, long bytes) {
+        if (used + bytes > limit) {
+            throw new MemoryLimitError(token, "Memory limit of " + limit + " bytes exceeded.");
+        }
+
+        used += bytes;
+        if (used > peak) peak = used;
+    }
+
+    void release(long bytes) {
+        used -= bytes;
+    }
+
+    void reset() {
+        used = 0;
+        peak = 0;
+    }
+
+    public long used() {
+        return used;
+    }
+
+    public long peak() {
+        return peak;
+    }
+}
@@ -0,0 +1,8 @@
+package org.smithe65.jlox;
+
+// Raised when a script allocates past its interpreter's memory limit.
+public class MemoryLimitError extends RuntimeError {
+    public MemoryLimitError(Token token, String message) {
+        super(token, message);
+    }
+}
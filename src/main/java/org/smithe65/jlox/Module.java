@@ -0,0 +1,41 @@
+package org.smithe65.jlox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+// A parsed and resolved source file. Resolution is stored in the tree itself, so one Module can
+// be run by any number of interpreters.
+public class Module {
+    final Path path;
+    final FileTime modified;
+    final List<Statement> statements;
+
+    Module(final Path path, final FileTime modified, final List<Statement> statements) {
+        this.path = path;
+        this.modified = modified;
+        this.statements = statements;
+    }
+
+    // Returns null if the file has compile errors, which go to the given reporter.
+    static Module compile(Path path, ErrorReporter reporter) throws IOException {
+        return compile(path, reporter, false);
+    }
+
+    static Module compile(Path path, ErrorReporter reporter, boolean lazyFunctions) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(path);
+        String source = new String(Files.readAllBytes(path), Charset.defaultCharset());
+
+        List<Token> tokens = ParallelScanner.scan(source, reporter);
+        List<Statement> statements = new Parser(tokens, reporter, lazyFunctions).parse();
+        if (reporter.hadError()) return null;
+
+        new Resolver(reporter).resolve(statements);
+        if (reporter.hadError()) return null;
+
+        return new Module(path, modified, statements);
+    }
+}
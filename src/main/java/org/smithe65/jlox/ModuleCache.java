@@ -0,0 +1,44 @@
+package org.smithe65.jlox;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Process-wide cache of compiled modules, keyed by path and invalidated when the file's
+// modification time changes.
+public class ModuleCache {
+    private static final Map<Path, Module> modules = new ConcurrentHashMap<>();
+    private static volatile boolean lazyFunctions = false;
+
+    private ModuleCache() {}
+
+    static void setLazyFunctions(boolean lazy) {
+        lazyFunctions = lazy;
+    }
+
+    // Returns null if the module has compile errors, which go to the given reporter.
+    static Module load(Path path, ErrorReporter reporter) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(path);
+        Module cached = modules.get(path);
+        if (cached != null && cached.modified.equals(modified)) return cached;
+
+        // Compiled outside the map, so a slow compile holds no lock and may import other modules.
+        Module module = Module.compile(path, reporter, lazyFunctions);
+        if (module == null) return null;
+
+        return modules.merge(path, module, ModuleCache::newer);
+    }
+
+    // Adds modules compiled elsewhere, such as by a BatchCompiler at startup.
+    static void add(Module module) {
+        modules.merge(module.path, module, ModuleCache::newer);
+    }
+
+    // Another thread may have compiled the same file meanwhile; the later version wins.
+    private static Module newer(Module cached, Module compiled) {
+        return compiled.modified.compareTo(cached.modified) >= 0 ? compiled : cached;
+    }
+}
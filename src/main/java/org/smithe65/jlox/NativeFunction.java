@@ -0,0 +1,63 @@
+package org.smithe65.jlox;
+
+import java.lang.invoke.MethodHandle;
+import java.util.List;
+
+public class NativeFunction implements LoxCallable {
+    // Natives with up to this many parameters get their arguments passed directly. Larger
+    // ones go through a spreader, which costs an array per call.
+    private static final int MAX_DIRECT_ARITY = 3;
+
+    private final String name;
+    private final int arity;
+    private final MethodHandle invoker;
+
+    NativeFunction(final String name, final int arity, final MethodHandle invoker) {
+        this.name = name;
+        this.arity = arity;
+        this.invoker = arity > MAX_DIRECT_ARITY ? invoker.asSpreader(Object[].class, arity) : invoker;
+    }
+
+    @Override
+    public int arity() { return arity; }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        try {
+            return invoke(arguments);
+        } catch (ArgumentError e) {
+            throw new ArgumentError(name + ": " + e.getMessage());
+        } catch (RuntimeError | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            // Whatever else a native throws is reported as a Lox error at the call site.
+            String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            throw new ArgumentError(name + ": " + message);
+        }
+    }
+
+    private Object invoke(List<Object> arguments) throws Throwable {
+        switch (arity) {
+            case 0:
+                return (Object)invoker.invokeExact();
+            case 1:
+                return (Object)invoker.invokeExact(arguments.get(0));
+            case 2:
+                return (Object)invoker.invokeExact(arguments.get(0), arguments.get(1));
+            case 3:
+                return (Object)invoker.invokeExact(arguments.get(0), arguments.get(1), arguments.get(2));
+            default:
+                return (Object)invoker.invokeExact(arguments.toArray());
+        }
+    }
+
+    @Override
+    public String toString() { return "<native-fn " + name + ">"; }
+
+    // Raised by argument adapters and natives; the interpreter reports it at the call site.
+    public static class ArgumentError extends RuntimeException {
+        public ArgumentError(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
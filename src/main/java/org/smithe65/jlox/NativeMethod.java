@@ -0,0 +1,18 @@
+package org.smithe65.jlox;
+
+// A method of a built-in type, bound to its receiver when the property is read.
+abstract class NativeMethod implements LoxCallable {
+    private final Token name;
+    private final int arity;
+
+    NativeMethod(Token name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    @Override
+    public int arity() { return arity; }
+
+    @Override
+    public String toString() { return "<native-fn " + name.lexeme + ">"; }
+}
@@ -0,0 +1,92 @@
+package org.smithe65.jlox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+public class NativeRegistry {
+    private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+    private static final MethodHandle toDouble = adapter("toDouble", double.class);
+    private static final MethodHandle toBoolean = adapter("toBoolean", boolean.class);
+    private static final MethodHandle toJavaString = adapter("toJavaString", String.class);
+
+    private NativeRegistry() {}
+
+    // Defines every @LoxNative static method of the given class as a global function.
+    public static void register(Environment globals, Class<?> natives) {
+        for (Method method : natives.getDeclaredMethods()) {
+            LoxNative annotation = method.getAnnotation(LoxNative.class);
+            if (annotation == null) continue;
+
+            if (!Modifier.isStatic(method.getModifiers())) {
+                throw new IllegalArgumentException("Native " + method + " must be static.");
+            }
+
+            String name = annotation.value().isEmpty() ? method.getName() : annotation.value();
+            globals.define(name, bind(name, method));
+        }
+    }
+
+    private static NativeFunction bind(String name, Method method) {
+        MethodHandle handle;
+        try {
+            handle = lookup.unreflect(method);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Native " + method + " is not accessible.", e);
+        }
+
+        Class<?>[] parameters = method.getParameterTypes();
+        for (int i = 0; i < parameters.length; i++) {
+            handle = MethodHandles.filterArguments(handle, i, argumentAdapter(method, parameters[i]));
+        }
+
+        // Widens numeric results to double, boxes primitives and turns void into nil.
+        handle = handle.asType(handle.type().changeReturnType(resultType(method)));
+        handle = handle.asType(handle.type().changeReturnType(Object.class));
+        return new NativeFunction(name, parameters.length, handle);
+    }
+
+    // The type a native's result is converted to before boxing, so only Lox values reach a script.
+    private static Class<?> resultType(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == void.class || type == boolean.class || type == double.class) return type;
+        if (type == byte.class || type == short.class || type == int.class) return double.class;
+        if (type == long.class || type == float.class) return double.class;
+        if (type == String.class || type == Double.class || type == Boolean.class) return type;
+        if (type == Object.class) return type;
+        throw new IllegalArgumentException("Native " + method + " has unsupported return type " + type + ".");
+    }
+
+    private static MethodHandle argumentAdapter(Method method, Class<?> type) {
+        if (type == double.class) return toDouble;
+        if (type == boolean.class) return toBoolean;
+        if (type == String.class) return toJavaString;
+        if (type == Object.class) return MethodHandles.identity(Object.class);
+        throw new IllegalArgumentException("Native " + method + " has unsupported parameter type " + type + ".");
+    }
+
+    private static MethodHandle adapter(String name, Class<?> type) {
+        try {
+            return lookup.findStatic(NativeRegistry.class, name, MethodType.methodType(type, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static double toDouble(Object value) {
+        if (value instanceof Double number) return number;
+        throw new NativeFunction.ArgumentError("Expected a number argument.");
+    }
+
+    private static boolean toBoolean(Object value) {
+        if (value instanceof Boolean bool) return bool;
+        throw new NativeFunction.ArgumentError("Expected a boolean argument.");
+    }
+
+    private static String toJavaString(Object value) {
+        if (value instanceof CharSequence string) return string.toString();
+        throw new NativeFunction.ArgumentError("Expected a string argument.");
+    }
+}
@@ -0,0 +1,8 @@
+package org.smithe65.jlox;
+
+class Natives {
+    @LoxNative
+    static double clock() {
+        return (double)System.currentTimeMillis() / 1000;
+    }
+}
@@ -0,0 +1,129 @@
+package org.smithe65.jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+// Tokenizes large sources in chunks on a fork-join pool. Chunks end just after a newline, which
+// only a string literal can span, so the one repair needed is for a string left open at the
+// end of a chunk: it is rescanned from its opening quote through the following chunks.
+public class ParallelScanner {
+    private static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    ParallelScanner() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    ParallelScanner(final ForkJoinPool pool, final int chunkSize) {
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    // Scans sequentially when the source is too small to be worth splitting, or when there is
+    // only one core to run chunks on.
+    static List<Token> scan(String source, ErrorReporter reporter) {
+        if (source.length() < 2 * DEFAULT_CHUNK_SIZE || ForkJoinPool.getCommonPoolParallelism() < 2) {
+            return new Scanner(source, reporter).scanTokens();
+        }
+
+        return new ParallelScanner().scanTokens(source, reporter);
+    }
+
+    List<Token> scanTokens(String source, ErrorReporter reporter) {
+        List<Integer> bounds = chunkBounds(source);
+        int chunks = bounds.size() - 1;
+
+        // First pass counts newlines so each chunk knows the line it starts on.
+        List<ForkJoinTask<Integer>> counts = new ArrayList<>();
+        for (int i = 0; i < chunks; i++) {
+            int from = bounds.get(i);
+            int to = bounds.get(i + 1);
+            counts.add(pool.submit(() -> countLines(source, from, to)));
+        }
+
+        int[] lines = new int[chunks];
+        lines[0] = 1;
+        for (int i = 1; i < chunks; i++) {
+            lines[i] = lines[i - 1] + counts.get(i - 1).join();
+        }
+
+        List<ForkJoinTask<Chunk>> scans = new ArrayList<>();
+        for (int i = 0; i < chunks; i++) {
+            int from = bounds.get(i);
+            int to = bounds.get(i + 1);
+            int line = lines[i];
+            scans.add(pool.submit(() -> Chunk.scan(source, from, to, line)));
+        }
+
+        int size = 1;
+        for (ForkJoinTask<Chunk> scan : scans) {
+            size += scan.join().tokens.size();
+        }
+
+        List<Token> tokens = new ArrayList<>(size);
+        int line = 1;
+        for (int i = 0; i < chunks; i++) {
+            Chunk chunk = scans.get(i).join();
+            tokens.addAll(chunk.tokens);
+            reporter.addAll(chunk.errors);
+            line = chunk.line;
+
+            // Rescan a string that ran past its chunk, discarding the following chunks'
+            // results until the rescan ends outside a string.
+            while (chunk.openString >= 0) {
+                i++;
+                chunk = Chunk.scan(source, chunk.openString, bounds.get(i + 1), chunk.openStringLine);
+                tokens.addAll(chunk.tokens);
+                reporter.addAll(chunk.errors);
+                line = chunk.line;
+            }
+        }
+
+        tokens.add(new Token(TokenType.EOF, "", null, line));
+        return tokens;
+    }
+
+    private List<Integer> chunkBounds(String source) {
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+
+        int position = chunkSize;
+        while (position < source.length()) {
+            int newline = source.indexOf('\n', position);
+            if (newline < 0) break;
+
+            bounds.add(newline + 1);
+            position = newline + 1 + chunkSize;
+        }
+
+        if (bounds.size() == 1 || bounds.get(bounds.size() - 1) < source.length()) {
+            bounds.add(source.length());
+        }
+
+        return bounds;
+    }
+
+    private static int countLines(String source, int from, int to) {
+        int lines = 0;
+        for (int i = from; i < to; i++) {
+            if (source.charAt(i) == '\n') lines++;
+        }
+
+        return lines;
+    }
+
+    // The tokens and errors of one range, and the line the range after it starts on.
+    private record Chunk(List<Token> tokens, List<String> errors, int line, int openString, int openStringLine) {
+        static Chunk scan(String source, int from, int to, int line) {
+            ErrorReporter reporter = new ErrorReporter();
+            Scanner scanner = new Scanner(source, from, to, line, reporter);
+            List<Token> tokens = scanner.scanRange();
+
+            return new Chunk(tokens, reporter.errors(), scanner.line(), scanner.openString(), scanner.openStringLine());
+        }
+    }
+}
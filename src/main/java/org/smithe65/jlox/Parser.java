@@ -11,10 +11,19 @@ public class Parser {
     private static class ParseError extends RuntimeException {}
 
     private final List<Token> tokens;
+    private final ErrorReporter reporter;
+    private final boolean lazyFunctions;
     private int current;
 
-    Parser(List<Token> tokens) {
+    Parser(List<Token> tokens, ErrorReporter reporter) {
+        this(tokens, reporter, false);
+    }
+
+    // With lazyFunctions, function bodies are only brace-matched here and parsed on first use.
+    Parser(List<Token> tokens, ErrorReporter reporter, boolean lazyFunctions) {
         this.tokens = tokens;
+        this.reporter = reporter;
+        this.lazyFunctions = lazyFunctions;
     }
 
     List<Statement> parse() {
@@ -27,10 +36,20 @@ public class Parser {
         return statements;
     }
 
+    // Parses the tokens of a deferred function body, which end with its closing brace.
+    List<Statement> parseBody() {
+        try {
+            return block();
+        } catch (ParseError error) {
+            return new ArrayList<>();
+        }
+    }
+
     private Statement declaration() {
         try {
             if (match(CLASS)) return classDeclaration();
             if (match(FUN)) return function("function");
+            if (match(IMPORT)) return importDeclaration();
             if (match(VAR)) return varDeclaration();
             return statement();
         } catch (ParseError error) {
@@ -69,10 +88,42 @@ public class Parser {
 
         consume(RIGHT_PARENTHESIS, "Expect ')' after parameter list");
         consume(LEFT_BRACE, "Expect '{' before " + kind + " body");
+
+        if (lazyFunctions) {
+            int from = current;
+            skipBlock();
+
+            List<Token> bodyTokens = new ArrayList<>(tokens.subList(from, current));
+            bodyTokens.add(new Token(EOF, "", null, previous().line));
+            return new Statement.Function(name, parameters, new LazyFunctionBody(name, bodyTokens));
+        }
+
         List<Statement> body = block();
         return new Statement.Function(name, parameters, body);
     }
 
+    private void skipBlock() {
+        int depth = 1;
+
+        while (!isAtEnd()) {
+            TokenType type = advance().type;
+            if (type == LEFT_BRACE) {
+                depth++;
+            } else if (type == RIGHT_BRACE && --depth == 0) {
+                return;
+            }
+        }
+
+        throw error(peek(), "Expect '}' after block.");
+    }
+
+    private Statement importDeclaration() {
+        Token keyword = previous();
+        Token path = consume(STRING, "Expect module path string after 'import'.");
+        consume(SEMICOLON, "Expect ';' after import.");
+        return new Statement.Import(keyword, path);
+    }
+
     private Statement varDeclaration() {
         Token name = consume(IDENTIFIER, "Expected a variable name.");
 
@@ -86,15 +137,17 @@ public class Parser {
     }
 
     private Statement whileStatement() {
+        Token keyword = previous();
         consume(LEFT_PARENTHESIS, "Expected '(' after 'while'.");
         Expression condition = expression();
         consume(RIGHT_PARENTHESIS, "Expected ')' after 'while'.");
         Statement body = statement();
 
-        return new Statement.While(condition, body);
+        return new Statement.While(keyword, condition, body);
     }
 
     private Statement forStatement() {
+        Token keyword = previous();
         consume(LEFT_PARENTHESIS, "Expected '(' after 'for'.");
 
         Statement initializer;
@@ -133,7 +186,7 @@ public class Parser {
             condition = new Expression.Literal(true);
         }
 
-        body = new Statement.While(condition, body);
+        body = new Statement.While(keyword, condition, body);
 
         if (initializer != null) {
             body = new Statement.Block(Arrays.asList(initializer, body));
@@ -199,128 +252,110 @@ public class Parser {
         return new Statement.Return(keyword, value);
     }
 
-    private Expression expression() {
-        return assignment();
-    }
-
-    private Expression assignment() {
-        Expression expression = or();
-
-        if (match(EQUAL)) {
-            Token equals = previous();
-            Expression value = assignment();
-
-            if (expression instanceof Expression.Variable) {
-                Token name = ((Expression.Variable)expression).name;
-                return new Expression.Assign(name, value);
-            } else if (expression instanceof Expression.Get get) {
-                return new Expression.Set(get.object, get.name, value);
-            }
-
-            //noinspection ThrowableNotThrown
-            error(equals, "Invalid assignment target.");
+    // Binding power of each token when it follows an operand, indexed by TokenType ordinal.
+    // Tokens that can't continue an expression are left null.
+    private enum Precedence {
+        ASSIGNMENT,
+        OR,
+        AND,
+        EQUALITY,
+        COMPARISON,
+        TERM,
+        FACTOR,
+        UNARY,
+        CALL;
+
+        // values() copies the array, and this runs for every operator parsed.
+        private static final Precedence[] VALUES = values();
+
+        Precedence next() {
+            return VALUES[ordinal() + 1];
         }
-
-        return expression;
     }
 
-    private Expression or() {
-        Expression expression = and();
+    private static final Precedence[] infixPrecedence = new Precedence[TokenType.values().length];
 
-        while (match(OR)) {
-            Token operator = previous();
-            Expression right = and();
-            expression = new Expression.Logical(expression, operator, right);
-        }
-
-        return expression;
+    static {
+        infix(Precedence.ASSIGNMENT, EQUAL);
+        infix(Precedence.OR, OR);
+        infix(Precedence.AND, AND);
+        infix(Precedence.EQUALITY, BANG_EQUAL, EQUAL_EQUAL);
+        infix(Precedence.COMPARISON, GREATER, GREATER_EQUAL, LESS, LESS_EQUAL);
+        infix(Precedence.TERM, MINUS, PLUS);
+        infix(Precedence.FACTOR, SLASH, STAR);
+        infix(Precedence.CALL, LEFT_PARENTHESIS, DOT, LEFT_BRACKET);
     }
 
-    private Expression and() {
-        Expression expression = equality();
-
-        while (match(AND)) {
-            Token operator = previous();
-            Expression right = equality();
-            expression = new Expression.Logical(expression, operator, right);
+    private static void infix(Precedence precedence, TokenType... types) {
+        for (TokenType type : types) {
+            infixPrecedence[type.ordinal()] = precedence;
         }
-
-        return expression;
     }
 
-    private Expression equality() {
-        Expression expression = comparison();
-
-        while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expression right = comparison();
-            expression = new Expression.Binary(expression, operator, right);
-        }
-
-        return expression;
+    private Expression expression() {
+        return expression(Precedence.ASSIGNMENT);
     }
 
-    private Expression comparison() {
-        Expression expression = term();
+    // Parses a prefix operand, then keeps folding in operators that bind at least as tightly
+    // as the given precedence. Produces the same trees as a rule-per-level descent, without
+    // passing through every level for each operand.
+    private Expression expression(Precedence precedence) {
+        Expression expression = prefix();
 
-        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-            Token operator = previous();
-            Expression right = term();
-            expression = new Expression.Binary(expression, operator, right);
-        }
+        for (;;) {
+            Precedence infix = infixPrecedence[peek().type.ordinal()];
+            if (infix == null || infix.compareTo(precedence) < 0) return expression;
 
-        return expression;
+            expression = infix(expression, advance(), infix);
+        }
     }
 
-    private Expression term() {
-        Expression expression = factor();
-
-        while (match(MINUS, PLUS)) {
-            Token operator = previous();
-            Expression right = factor();
-            expression = new Expression.Binary(expression, operator, right);
+    private Expression infix(Expression left, Token operator, Precedence precedence) {
+        switch (operator.type) {
+            case EQUAL:
+                return assignment(left, operator);
+            case OR:
+            case AND:
+                return new Expression.Logical(left, operator, expression(precedence.next()));
+            case LEFT_PARENTHESIS:
+                return finishCall(left);
+            case DOT:
+                Token name = consume(IDENTIFIER, "Expect property name after '.'");
+                return new Expression.Get(left, name);
+            case LEFT_BRACKET:
+                Expression index = expression();
+                consume(RIGHT_BRACKET, "Expect ']' after index.");
+                return new Expression.Index(left, operator, index);
+            default:
+                return new Expression.Binary(left, operator, expression(precedence.next()));
         }
-
-        return expression;
     }
 
-    private Expression factor() {
-        Expression expression = unary();
+    private Expression assignment(Expression target, Token equals) {
+        // Assignment is right-associative, so the value is parsed at its own level.
+        Expression value = expression(Precedence.ASSIGNMENT);
 
-        while (match(SLASH, STAR)) {
-            Token operator = previous();
-            Expression right = unary();
-            expression = new Expression.Binary(expression, operator, right);
+        if (target instanceof Expression.Variable) {
+            Token name = ((Expression.Variable)target).name;
+            return new Expression.Assign(name, value);
+        } else if (target instanceof Expression.Get get) {
+            return new Expression.Set(get.object, get.name, value);
+        } else if (target instanceof Expression.Index index) {
+            return new Expression.IndexSet(index.object, index.bracket, index.index, value);
         }
 
-        return expression;
+        //noinspection ThrowableNotThrown
+        error(equals, "Invalid assignment target.");
+        return target;
     }
 
-    private Expression unary() {
-        if (match(BANG, MINUS)) {
+    private Expression prefix() {
+        if (match(BANG) || match(MINUS)) {
             Token operator = previous();
-            Expression right = unary();
-            return new Expression.Unary(operator, right);
+            return new Expression.Unary(operator, expression(Precedence.UNARY));
         }
 
-        return call();
-    }
-
-    private Expression call() {
-        Expression expression = primary();
-
-        while (true) {
-            if (match(LEFT_PARENTHESIS)) {
-                expression = finishCall(expression);
-            } else if (match(DOT)) {
-                Token name = consume(IDENTIFIER, "Expect property name after '.'");
-                expression = new Expression.Get(expression, name);
-            } else {
-                break;
-            }
-        }
-
-        return expression;
+        return primary();
     }
 
     private Expression finishCall(Expression callee) {
@@ -346,7 +381,7 @@ public class Parser {
         if (match(TRUE)) return new Expression.Literal(true);
         if (match(NIL)) return new Expression.Literal(null);
 
-        if (match(NUMBER, STRING)) {
+        if (match(NUMBER) || match(STRING)) {
             return new Expression.Literal(previous().literal);
         }
 
@@ -364,6 +399,37 @@ public class Parser {
             return new Expression.Grouping(expression);
         }
 
+        if (match(LEFT_BRACKET)) {
+            Token bracket = previous();
+            List<Expression> elements = new ArrayList<>();
+
+            if (!check(RIGHT_BRACKET)) {
+                do {
+                    elements.add(expression());
+                } while (match(COMMA));
+            }
+
+            consume(RIGHT_BRACKET, "Expect ']' after array elements.");
+            return new Expression.Array(bracket, elements);
+        }
+
+        if (match(LEFT_BRACE)) {
+            Token brace = previous();
+            List<Expression> keys = new ArrayList<>();
+            List<Expression> values = new ArrayList<>();
+
+            if (!check(RIGHT_BRACE)) {
+                do {
+                    keys.add(expression());
+                    consume(COLON, "Expect ':' after map key.");
+                    values.add(expression());
+                } while (match(COMMA));
+            }
+
+            consume(RIGHT_BRACE, "Expect '}' after map entries.");
+            return new Expression.Map(brace, keys, values);
+        }
+
         throw error(peek(), "Expect expression.");
     }
 
@@ -384,7 +450,7 @@ public class Parser {
     }
 
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        reporter.error(token, message);
         return new ParseError();
     }
 
@@ -392,15 +458,11 @@ public class Parser {
         return peek().type == EOF;
     }
 
-    private boolean match(TokenType... types) {
-        for (TokenType type : types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
-        }
+    private boolean match(TokenType type) {
+        if (!check(type)) return false;
 
-        return false;
+        advance();
+        return true;
     }
 
     private Token peek() {
@@ -420,6 +482,7 @@ public class Parser {
             switch (peek().type) {
                 case CLASS:
                 case FUN:
+                case IMPORT:
                 case VAR:
                 case FOR:
                 case IF:
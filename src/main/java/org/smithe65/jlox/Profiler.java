@@ -0,0 +1,70 @@
+package org.smithe65.jlox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Samples an interpreter's CallStack from a background thread and aggregates the samples in the
+// collapsed-stack format read by flame graph tools ("script;outer;inner count" per line).
+// Only Lox function calls are frames, so time spent at the top level of a script, including
+// in top-level loops, all lands in the one '<script>' frame with no breakdown by line; use
+// --hot-lines for that.
+public class Profiler {
+    private final CallStack stack;
+    private final long intervalNanos;
+    private final Map<String, Long> samples = new HashMap<>();
+    private final Thread sampler;
+    private volatile boolean running;
+
+    public Profiler(CallStack stack, int samplesPerSecond) {
+        if (samplesPerSecond <= 0) {
+            throw new IllegalArgumentException("Sample rate must be positive: " + samplesPerSecond);
+        }
+
+        this.stack = stack;
+        this.stack.track();
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / samplesPerSecond;
+        this.sampler = new Thread(this::sample, "lox-profiler");
+        this.sampler.setDaemon(true);
+    }
+
+    public void start() {
+        running = true;
+        sampler.start();
+    }
+
+    public void stop() throws InterruptedException {
+        running = false;
+        sampler.join();
+    }
+
+    private void sample() {
+        StringBuilder key = new StringBuilder();
+
+        while (running) {
+            LockSupport.parkNanos(intervalNanos);
+
+            key.setLength(0);
+            key.append("<script>");
+            for (String frame : stack.snapshot()) {
+                if (frame != null) key.append(';').append(frame);
+            }
+
+            samples.merge(key.toString(), 1L, Long::sum);
+        }
+    }
+
+    public void write(Path path) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, Long> entry : samples.entrySet()) {
+                writer.println(entry.getKey() + " " + entry.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package org.smithe65.jlox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Finds top-level functions whose result depends only on their arguments: no printing, fields,
+// arrays, maps, global writes or nested declarations, and only calls to other pure functions that are defined
+// once and never reassigned.
+public class PurityAnalyzer implements Statement.Visitor<Void>, Expression.Visitor<Void> {
+    private final Deque<Set<String>> scopes = new ArrayDeque<>();
+    private final Map<String, Integer> globalDefinitions = new HashMap<>();
+    private final Set<String> globalWrites = new HashSet<>();
+    private final Map<Statement.Function, Set<String>> dependencies = new HashMap<>();
+    private final List<Statement.Function> functions = new ArrayList<>();
+
+    private Statement.Function current;
+    private boolean currentPure;
+
+    public Set<Statement.Function> analyze(List<Statement> statements) {
+        analyzeAll(statements);
+
+        Map<String, Statement.Function> candidates = new HashMap<>();
+        for (Statement.Function function : functions) {
+            String name = function.name.lexeme;
+            if (globalDefinitions.get(name) == 1 && !globalWrites.contains(name)) {
+                candidates.put(name, function);
+            }
+        }
+
+        Set<Statement.Function> pure = new HashSet<>();
+        for (Statement.Function function : candidates.values()) {
+            if (dependencies.containsKey(function)) pure.add(function);
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Statement.Function function : new ArrayList<>(pure)) {
+                for (String name : dependencies.get(function)) {
+                    if (!pure.contains(candidates.get(name))) {
+                        pure.remove(function);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        return pure;
+    }
+
+    private void analyze(Statement statement) {
+        statement.accept(this);
+    }
+
+    private void analyzeAll(List<Statement> statements) {
+        for (Statement statement : statements) {
+            analyze(statement);
+        }
+    }
+
+    private void analyze(Expression expression) {
+        expression.accept(this);
+    }
+
+    private void impure() {
+        currentPure = false;
+    }
+
+    private boolean isLocal(String name) {
+        for (Set<String> scope : scopes) {
+            if (scope.contains(name)) return true;
+        }
+
+        return false;
+    }
+
+    private void declare(Token name) {
+        if (scopes.isEmpty()) {
+            globalDefinitions.merge(name.lexeme, 1, Integer::sum);
+        } else {
+            scopes.peek().add(name.lexeme);
+        }
+    }
+
+    private void analyzeBody(Statement.Function function) {
+        // Parsing a lazy body here would undo the point of deferring it, and it may not parse.
+        if (function.body instanceof LazyFunctionBody body && !body.isParsed()) {
+            impure();
+            return;
+        }
+
+        scopes.push(new HashSet<>());
+        for (Token parameter : function.parameters) {
+            scopes.peek().add(parameter.lexeme);
+        }
+
+        analyzeAll(function.body);
+        scopes.pop();
+    }
+
+    @Override
+    public Void visitBlockStatement(Statement.Block statement) {
+        scopes.push(new HashSet<>());
+        analyzeAll(statement.statements);
+        scopes.pop();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStatement(Statement.Class statement) {
+        impure();
+        declare(statement.name);
+
+        for (Statement.Function method : statement.methods) {
+            analyzeBody(method);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStatement(Statement.Expression statement) {
+        analyze(statement.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStatement(Statement.Function statement) {
+        if (!scopes.isEmpty()) {
+            impure();
+            declare(statement.name);
+            analyzeBody(statement);
+            return null;
+        }
+
+        declare(statement.name);
+        functions.add(statement);
+
+        current = statement;
+        currentPure = true;
+        dependencies.put(statement, new HashSet<>());
+
+        analyzeBody(statement);
+
+        if (!currentPure) dependencies.remove(statement);
+        current = null;
+        return null;
+    }
+
+    @Override
+    public Void visitIfStatement(Statement.If statement) {
+        analyze(statement.condition);
+        analyze(statement.thenBranch);
+        if (statement.elseBranch != null) analyze(statement.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStatement(Statement.Import statement) {
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStatement(Statement.Print statement) {
+        impure();
+        analyze(statement.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStatement(Statement.Return statement) {
+        if (statement.expression != null) analyze(statement.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStatement(Statement.Var statement) {
+        if (statement.initializer != null) analyze(statement.initializer);
+        declare(statement.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStatement(Statement.While statement) {
+        analyze(statement.condition);
+        analyze(statement.body);
+        return null;
+    }
+
+    @Override
+    public Void visitArrayExpression(Expression.Array expression) {
+        impure();
+        for (Expression element : expression.elements) {
+            analyze(element);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpression(Expression.Assign expression) {
+        analyze(expression.value);
+
+        if (!isLocal(expression.name.lexeme)) {
+            globalWrites.add(expression.name.lexeme);
+            impure();
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpression(Expression.Binary expression) {
+        analyze(expression.left);
+        analyze(expression.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpression(Expression.Call expression) {
+        // Only calls to global functions can be checked; anything else could be any function.
+        if (!(expression.callee instanceof Expression.Variable variable) || isLocal(variable.name.lexeme)) {
+            impure();
+        }
+
+        analyze(expression.callee);
+        for (Expression argument : expression.arguments) {
+            analyze(argument);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpression(Expression.Get expression) {
+        impure();
+        analyze(expression.object);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpression(Expression.Grouping expression) {
+        analyze(expression.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpression(Expression.Index expression) {
+        impure();
+        analyze(expression.object);
+        analyze(expression.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpression(Expression.IndexSet expression) {
+        impure();
+        analyze(expression.object);
+        analyze(expression.index);
+        analyze(expression.value);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpression(Expression.Literal expression) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpression(Expression.Logical expression) {
+        analyze(expression.left);
+        analyze(expression.right);
+        return null;
+    }
+
+    @Override
+    public Void visitMapExpression(Expression.Map expression) {
+        impure();
+        for (int i = 0; i < expression.keys.size(); i++) {
+            analyze(expression.keys.get(i));
+            analyze(expression.values.get(i));
+        }
+
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpression(Expression.Set expression) {
+        impure();
+        analyze(expression.object);
+        analyze(expression.value);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpression(Expression.This expression) {
+        impure();
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpression(Expression.Unary expression) {
+        analyze(expression.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpression(Expression.Variable expression) {
+        if (current != null && !isLocal(expression.name.lexeme)) {
+            dependencies.get(current).add(expression.name.lexeme);
+        }
+
+        return null;
+    }
+}
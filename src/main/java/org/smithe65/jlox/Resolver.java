@@ -1,18 +1,25 @@
 package org.smithe65.jlox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
+// Records each local variable's scope distance on the node that uses it, so a resolved tree
+// carries everything needed to run it and can be shared between interpreters.
 public class Resolver implements Statement.Visitor<Void>, Expression.Visitor<Void> {
-    private final Interpreter interpreter;
+    private final ErrorReporter reporter;
     private final Stack<Map<String, Boolean>> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
 
-    Resolver(final Interpreter interpreter) {
-        this.interpreter = interpreter;
+    // Everything needed to resolve a lazily parsed function body after the rest of the tree.
+    record Context(List<Map<String, Boolean>> scopes, FunctionType function, ClassType enclosingClass,
+                   List<Token> parameters) {}
+
+    Resolver(final ErrorReporter reporter) {
+        this.reporter = reporter;
     }
 
     private void beginScope() {
@@ -43,7 +50,7 @@ public class Resolver implements Statement.Visitor<Void>, Expression.Visitor<Voi
         Map<String, Boolean> scope = scopes.peek();
 
         if (scope.containsKey(name.lexeme)) {
-            Lox.error(name, "Variable with same name already declared in same scope.");
+            reporter.error(name, "Variable with same name already declared in same scope.");
         }
 
         scope.put(name.lexeme, false);
@@ -54,16 +61,44 @@ public class Resolver implements Statement.Visitor<Void>, Expression.Visitor<Voi
         scopes.peek().put(name.lexeme, true);
     }
 
-    private void resolveLocal(Expression expression, Token name) {
+    private int resolveLocal(Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
             if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expression, scopes.size() - 1 - i);
-                return;
+                return scopes.size() - 1 - i;
             }
         }
+
+        return -1;
+    }
+
+    static void resolveDeferred(Context context, List<Statement> body, ErrorReporter reporter) {
+        Resolver resolver = new Resolver(reporter);
+        resolver.scopes.addAll(context.scopes());
+        resolver.currentFunction = context.function();
+        resolver.currentClass = context.enclosingClass();
+
+        resolver.beginScope();
+        for (Token param : context.parameters()) {
+            resolver.declare(param);
+            resolver.define(param);
+        }
+
+        resolver.resolve(body);
     }
 
     private void resolveFunction(Statement.Function function, FunctionType functionType) {
+        // The enclosing scopes are copied as they stand now, since a body resolved later must
+        // not see names declared after the function.
+        if (function.body instanceof LazyFunctionBody lazy && !lazy.isParsed()) {
+            List<Map<String, Boolean>> enclosing = new ArrayList<>();
+            for (Map<String, Boolean> scope : scopes) {
+                enclosing.add(new HashMap<>(scope));
+            }
+
+            lazy.deferResolution(new Context(enclosing, functionType, currentClass, function.parameters));
+            return;
+        }
+
         FunctionType enclosingFunction = currentFunction;
         currentFunction = functionType;
 
@@ -76,6 +111,7 @@ public class Resolver implements Statement.Visitor<Void>, Expression.Visitor<Voi
 
         resolve(function.body);
         endScope();
+        currentFunction = enclosingFunction;
     }
 
     @Override
@@ -131,6 +167,15 @@ public class Resolver implements Statement.Visitor<Void>, Expression.Visitor<Voi
         return null;
     }
 
+    @Override
+    public Void visitImportStatement(Statement.Import statement) {
+        if (!scopes.isEmpty()) {
+            reporter.error(statement.keyword, "Can only import at top level.");
+        }
+
+        return null;
+    }
+
     @Override
     public Void visitPrintStatement(Statement.Print statement) {
         resolve(statement.expression);
@@ -140,13 +185,17 @@ public class Resolver implements Statement.Visitor<Void>, Expression.Visitor<Voi
     @Override
     public Void visitReturnStatement(Statement.Return statement) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(statement.keyword, "Can't return from top-level code.");
+            reporter.error(statement.keyword, "Can't return from top-level code.");
         }
 
         if (statement.expression != null) {
             resolve(statement.expression);
         }
 
+        if (statement.expression instanceof Expression.Call call) {
+            call.tailCall = true;
+        }
+
         return null;
     }
 
@@ -170,10 +219,19 @@ public class Resolver implements Statement.Visitor<Void>, Expression.Visitor<Voi
         return null;
     }
 
+    @Override
+    public Void visitArrayExpression(Expression.Array expression) {
+        for (Expression element : expression.elements) {
+            resolve(element);
+        }
+
+        return null;
+    }
+
     @Override
     public Void visitAssignExpression(Expression.Assign expression) {
         resolve(expression.value);
-        resolveLocal(expression, expression.name);
+        expression.depth = resolveLocal(expression.name);
         return null;
     }
 
@@ -207,6 +265,21 @@ public class Resolver implements Statement.Visitor<Void>, Expression.Visitor<Voi
         return null;
     }
 
+    @Override
+    public Void visitIndexExpression(Expression.Index expression) {
+        resolve(expression.object);
+        resolve(expression.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpression(Expression.IndexSet expression) {
+        resolve(expression.value);
+        resolve(expression.object);
+        resolve(expression.index);
+        return null;
+    }
+
     @Override
     public Void visitLiteralExpression(Expression.Literal expression) {
         return null;
@@ -219,6 +292,16 @@ public class Resolver implements Statement.Visitor<Void>, Expression.Visitor<Voi
         return null;
     }
 
+    @Override
+    public Void visitMapExpression(Expression.Map expression) {
+        for (int i = 0; i < expression.keys.size(); i++) {
+            resolve(expression.keys.get(i));
+            resolve(expression.values.get(i));
+        }
+
+        return null;
+    }
+
     @Override
     public Void visitSetExpression(Expression.Set expression) {
         resolve(expression.value);
@@ -229,11 +312,11 @@ public class Resolver implements Statement.Visitor<Void>, Expression.Visitor<Voi
     @Override
     public Void visitThisExpression(Expression.This expression) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expression.keyword, "Can't use 'this' outside of a class.");
+            reporter.error(expression.keyword, "Can't use 'this' outside of a class.");
             return null;
         }
         
-        resolveLocal(expression, expression.keyword);
+        expression.depth = resolveLocal(expression.keyword);
         return null;
     }
 
@@ -246,10 +329,10 @@ public class Resolver implements Statement.Visitor<Void>, Expression.Visitor<Voi
     @Override
     public Void visitVariableExpression(Expression.Variable expression) {
         if (!scopes.isEmpty() && scopes.peek().get(expression.name.lexeme) == Boolean.FALSE) {
-            Lox.error(expression.name, "Can't read local variable in its own initializer.");
+            reporter.error(expression.name, "Can't read local variable in its own initializer.");
         }
 
-        resolveLocal(expression, expression.name);
+        expression.depth = resolveLocal(expression.name);
         return null;
     }
 }
@@ -1,47 +1,95 @@
 package org.smithe65.jlox;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 import static org.smithe65.jlox.TokenType.*;
 
 public class Scanner {
-    private static final Map<String, TokenType> keywords;
+    // Character classes for ASCII, so classification is one table load instead of range checks.
+    private static final byte ALPHA = 1;
+    private static final byte DIGIT = 2;
+    private static final byte[] characterClasses = new byte[128];
+
+    // Tokens whose text never varies share one lexeme string instead of a fresh substring.
+    private static final String[] fixedLexemes = new String[TokenType.values().length];
 
     static {
-        keywords = new HashMap<String, TokenType>();
-        keywords.put("and", AND);
-        keywords.put("class", CLASS);
-        keywords.put("else", ELSE);
-        keywords.put("false", FALSE);
-        keywords.put("for", FOR);
-        keywords.put("fun", FUN);
-        keywords.put("if", IF);
-        keywords.put("nil", NIL);
-        keywords.put("or", OR);
-        keywords.put("print", PRINT);
-        keywords.put("return", RETURN);
-        keywords.put("super", SUPER);
-        keywords.put("this", THIS);
-        keywords.put("true", TRUE);
-        keywords.put("var", VAR);
-        keywords.put("while", WHILE);
+        for (char c = 'a'; c <= 'z'; c++) characterClasses[c] = ALPHA;
+        for (char c = 'A'; c <= 'Z'; c++) characterClasses[c] = ALPHA;
+        characterClasses['_'] = ALPHA;
+        for (char c = '0'; c <= '9'; c++) characterClasses[c] = DIGIT;
+
+        fixed(LEFT_PARENTHESIS, "(");
+        fixed(RIGHT_PARENTHESIS, ")");
+        fixed(LEFT_BRACE, "{");
+        fixed(RIGHT_BRACE, "}");
+        fixed(LEFT_BRACKET, "[");
+        fixed(RIGHT_BRACKET, "]");
+        fixed(COLON, ":");
+        fixed(COMMA, ",");
+        fixed(DOT, ".");
+        fixed(MINUS, "-");
+        fixed(PLUS, "+");
+        fixed(SEMICOLON, ";");
+        fixed(SLASH, "/");
+        fixed(STAR, "*");
+        fixed(BANG, "!");
+        fixed(BANG_EQUAL, "!=");
+        fixed(EQUAL, "=");
+        fixed(EQUAL_EQUAL, "==");
+        fixed(GREATER, ">");
+        fixed(GREATER_EQUAL, ">=");
+        fixed(LESS, "<");
+        fixed(LESS_EQUAL, "<=");
+        fixed(AND, "and");
+        fixed(CLASS, "class");
+        fixed(ELSE, "else");
+        fixed(FALSE, "false");
+        fixed(FOR, "for");
+        fixed(FUN, "fun");
+        fixed(IF, "if");
+        fixed(IMPORT, "import");
+        fixed(NIL, "nil");
+        fixed(OR, "or");
+        fixed(PRINT, "print");
+        fixed(RETURN, "return");
+        fixed(SUPER, "super");
+        fixed(THIS, "this");
+        fixed(TRUE, "true");
+        fixed(VAR, "var");
+        fixed(WHILE, "while");
+    }
+
+    private static void fixed(TokenType type, String lexeme) {
+        fixedLexemes[type.ordinal()] = lexeme;
     }
 
     private final String source;
+    private final ErrorReporter reporter;
     private final List<Token> tokens = new ArrayList<>();
+    private final int end;
     private int start = 0;
     private int current = 0;
     private int line = 1;
+    private int openString = -1;
+    private int openStringLine;
+
+    Scanner(String source, ErrorReporter reporter) {
+        this(source, 0, source.length(), 1, reporter);
+    }
 
-    Scanner(String source) {
+    // Scans only source[from, to), starting at the given line number.
+    Scanner(String source, int from, int to, int line, ErrorReporter reporter) {
         this.source = source;
+        this.reporter = reporter;
+        this.current = from;
+        this.end = to;
+        this.line = line;
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= end;
     }
 
     private char advance() {
@@ -49,7 +97,9 @@ public class Scanner {
     }
 
     private void addToken(TokenType type) {
-        addToken(type, null);
+        String lexeme = fixedLexemes[type.ordinal()];
+        if (lexeme == null) lexeme = source.substring(start, current);
+        tokens.add(new Token(type, lexeme, null, line));
     }
 
     private void addToken(TokenType type, Object literal) {
@@ -58,22 +108,74 @@ public class Scanner {
     }
 
     private boolean isAlpha(char c) {
-        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+        return c < 128 && characterClasses[c] == ALPHA;
     }
 
     private boolean isAlphanumeric(char c) {
-        return isAlpha(c) || isDigit(c);
+        return c < 128 && characterClasses[c] != 0;
     }
 
     private void identifier() {
         while (isAlphanumeric(peek())) advance();
 
+        TokenType type = keyword();
+        if (type != null) {
+            String lexeme = fixedLexemes[type.ordinal()];
+            tokens.add(new Token(type, lexeme, lexeme, line));
+            return;
+        }
+
         String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
+        tokens.add(new Token(IDENTIFIER, text, text, line));
+    }
 
-        if (type == null) type = IDENTIFIER;
+    // A trie over the keywords, branching on the first one or two characters and then
+    // comparing the rest in place, so no substring is made for the check.
+    private TokenType keyword() {
+        switch (source.charAt(start)) {
+            case 'a': return keyword(1, "nd", AND);
+            case 'c': return keyword(1, "lass", CLASS);
+            case 'e': return keyword(1, "lse", ELSE);
+            case 'f':
+                if (current - start > 1) {
+                    switch (source.charAt(start + 1)) {
+                        case 'a': return keyword(2, "lse", FALSE);
+                        case 'o': return keyword(2, "r", FOR);
+                        case 'u': return keyword(2, "n", FUN);
+                    }
+                }
+                return null;
+            case 'i':
+                if (current - start > 1) {
+                    switch (source.charAt(start + 1)) {
+                        case 'f': return keyword(2, "", IF);
+                        case 'm': return keyword(2, "port", IMPORT);
+                    }
+                }
+                return null;
+            case 'n': return keyword(1, "il", NIL);
+            case 'o': return keyword(1, "r", OR);
+            case 'p': return keyword(1, "rint", PRINT);
+            case 'r': return keyword(1, "eturn", RETURN);
+            case 's': return keyword(1, "uper", SUPER);
+            case 't':
+                if (current - start > 1) {
+                    switch (source.charAt(start + 1)) {
+                        case 'h': return keyword(2, "is", THIS);
+                        case 'r': return keyword(2, "ue", TRUE);
+                    }
+                }
+                return null;
+            case 'v': return keyword(1, "ar", VAR);
+            case 'w': return keyword(1, "hile", WHILE);
+            default: return null;
+        }
+    }
 
-        addToken(type, text);
+    private TokenType keyword(int offset, String rest, TokenType type) {
+        if (current - start != offset + rest.length()) return null;
+        if (!source.regionMatches(start + offset, rest, 0, rest.length())) return null;
+        return type;
     }
 
     private boolean isDigit(char c) {
@@ -89,14 +191,20 @@ public class Scanner {
     }
 
     private void number() {
-        while (isDigit(peek())) advance();
+        long value = source.charAt(start) - '0';
+        while (isDigit(peek())) value = value * 10 + (advance() - '0');
 
+        boolean integer = true;
         if (peek() == '.' && isDigit(peekNext())) {
-
+            integer = false;
             do advance(); while (isDigit(peek()));
         }
 
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        String text = source.substring(start, current);
+
+        // Integers of up to 15 digits are exact as doubles, so they skip parseDouble.
+        double number = integer && text.length() <= 15 ? value : Double.parseDouble(text);
+        tokens.add(new Token(NUMBER, text, number, line));
     }
 
     private char peek() {
@@ -105,18 +213,25 @@ public class Scanner {
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
+        if (current + 1 >= end) return '\0';
         return source.charAt(current + 1);
     }
 
     private void string() {
+        int startLine = line;
         while (peek() != '"' && !isAtEnd()) {
             if (peek() == '\n') line++;
             advance();
         }
 
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            // A string running off the end of a partial range may close in the next one.
+            if (end < source.length()) {
+                openString = start;
+                openStringLine = startLine;
+            } else {
+                reporter.error(line, "Unterminated string.");
+            }
             return;
         }
 
@@ -127,15 +242,34 @@ public class Scanner {
     }
 
     public List<Token> scanTokens() {
+        scanRange();
+        tokens.add(new Token(EOF, "", null, line));
+        return tokens;
+    }
+
+    // Scans without adding EOF, for ranges that are only part of the source.
+    List<Token> scanRange() {
         while (!isAtEnd()) {
             start = current;
             scanToken();
         }
 
-        tokens.add(new Token(EOF, "", null, line));
         return tokens;
     }
 
+    int line() {
+        return line;
+    }
+
+    // Where a string left open at the end of the range began, or -1 if there is none.
+    int openString() {
+        return openString;
+    }
+
+    int openStringLine() {
+        return openStringLine;
+    }
+
     private void scanToken() {
         char c = advance();
 
@@ -152,6 +286,15 @@ public class Scanner {
             case '}':
                 addToken(RIGHT_BRACE);
                 break;
+            case '[':
+                addToken(LEFT_BRACKET);
+                break;
+            case ']':
+                addToken(RIGHT_BRACKET);
+                break;
+            case ':':
+                addToken(COLON);
+                break;
             case ',':
                 addToken(COMMA);
                 break;
@@ -211,7 +354,7 @@ public class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character");
+                    reporter.error(line, "Unexpected character");
                 }
                 break;
         }
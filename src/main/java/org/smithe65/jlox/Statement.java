@@ -2,19 +2,20 @@ package org.smithe65.jlox;
 
 import java.util.List;
 
-public abstract class Statement {
+public abstract sealed class Statement {
   public interface Visitor<R> {
     R visitBlockStatement(Block statement);
     R visitClassStatement(Class statement);
     R visitExpressionStatement(Expression statement);
     R visitFunctionStatement(Function statement);
     R visitIfStatement(If statement);
+    R visitImportStatement(Import statement);
     R visitPrintStatement(Print statement);
     R visitReturnStatement(Return statement);
     R visitVarStatement(Var statement);
     R visitWhileStatement(While statement);
   }
-  public static class Block extends Statement {
+  public static final class Block extends Statement {
     Block(List<Statement> statements) {
       this.statements = statements;
     }
@@ -26,7 +27,7 @@ public abstract class Statement {
 
     final List<Statement> statements;
   }
-  public static class Class extends Statement {
+  public static final class Class extends Statement {
     Class(Token name, List<Statement.Function> methods) {
       this.name = name;
       this.methods = methods;
@@ -40,7 +41,7 @@ public abstract class Statement {
     final Token name;
     final List<Statement.Function> methods;
   }
-  public static class Expression extends Statement {
+  public static final class Expression extends Statement {
     Expression(org.smithe65.jlox.Expression expression) {
       this.expression = expression;
     }
@@ -52,7 +53,7 @@ public abstract class Statement {
 
     final org.smithe65.jlox.Expression expression;
   }
-  public static class Function extends Statement {
+  public static final class Function extends Statement {
     Function(Token name, List<Token> parameters, List<Statement> body) {
       this.name = name;
       this.parameters = parameters;
@@ -68,7 +69,7 @@ public abstract class Statement {
     final List<Token> parameters;
     final List<Statement> body;
   }
-  public static class If extends Statement {
+  public static final class If extends Statement {
     If(org.smithe65.jlox.Expression condition, Statement thenBranch, Statement elseBranch) {
       this.condition = condition;
       this.thenBranch = thenBranch;
@@ -84,7 +85,21 @@ public abstract class Statement {
     final Statement thenBranch;
     final Statement elseBranch;
   }
-  public static class Print extends Statement {
+  public static final class Import extends Statement {
+    Import(Token keyword, Token path) {
+      this.keyword = keyword;
+      this.path = path;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitImportStatement(this);
+    }
+
+    final Token keyword;
+    final Token path;
+  }
+  public static final class Print extends Statement {
     Print(org.smithe65.jlox.Expression expression) {
       this.expression = expression;
     }
@@ -96,7 +111,7 @@ public abstract class Statement {
 
     final org.smithe65.jlox.Expression expression;
   }
-  public static class Return extends Statement {
+  public static final class Return extends Statement {
     Return(Token keyword, org.smithe65.jlox.Expression expression) {
       this.keyword = keyword;
       this.expression = expression;
@@ -110,7 +125,7 @@ public abstract class Statement {
     final Token keyword;
     final org.smithe65.jlox.Expression expression;
   }
-  public static class Var extends Statement {
+  public static final class Var extends Statement {
     Var(Token name, org.smithe65.jlox.Expression initializer) {
       this.name = name;
       this.initializer = initializer;
@@ -124,8 +139,9 @@ public abstract class Statement {
     final Token name;
     final org.smithe65.jlox.Expression initializer;
   }
-  public static class While extends Statement {
-    While(org.smithe65.jlox.Expression condition, Statement body) {
+  public static final class While extends Statement {
+    While(Token keyword, org.smithe65.jlox.Expression condition, Statement body) {
+      this.keyword = keyword;
       this.condition = condition;
       this.body = body;
     }
@@ -135,6 +151,7 @@ public abstract class Statement {
       return visitor.visitWhileStatement(this);
     }
 
+    final Token keyword;
     final org.smithe65.jlox.Expression condition;
     final Statement body;
   }
@@ -0,0 +1,45 @@
+package org.smithe65.jlox;
+
+// An interpreter that dispatches on node type with pattern-matching switches over the sealed
+// AST instead of through accept(). Every node evaluation goes through evaluate() and execute(),
+// so those are the only methods that change. Cases are ordered by how often they tend to run.
+public class SwitchInterpreter extends Interpreter {
+    @Override
+    void execute(Statement statement) {
+        metrics().statementExecuted();
+
+        switch (statement) {
+            case Statement.Expression expression -> visitExpressionStatement(expression);
+            case Statement.If ifStatement -> visitIfStatement(ifStatement);
+            case Statement.Return returnStatement -> visitReturnStatement(returnStatement);
+            case Statement.Var var -> visitVarStatement(var);
+            case Statement.Block block -> visitBlockStatement(block);
+            case Statement.While whileStatement -> visitWhileStatement(whileStatement);
+            case Statement.Print print -> visitPrintStatement(print);
+            case Statement.Function function -> visitFunctionStatement(function);
+            case Statement.Class classStatement -> visitClassStatement(classStatement);
+            case Statement.Import importStatement -> visitImportStatement(importStatement);
+        }
+    }
+
+    @Override
+    Object evaluate(Expression expression) {
+        return switch (expression) {
+            case Expression.Variable variable -> visitVariableExpression(variable);
+            case Expression.Literal literal -> visitLiteralExpression(literal);
+            case Expression.Binary binary -> visitBinaryExpression(binary);
+            case Expression.Call call -> visitCallExpression(call);
+            case Expression.Assign assign -> visitAssignExpression(assign);
+            case Expression.Logical logical -> visitLogicalExpression(logical);
+            case Expression.Grouping grouping -> visitGroupingExpression(grouping);
+            case Expression.Unary unary -> visitUnaryExpression(unary);
+            case Expression.Get get -> visitGetExpression(get);
+            case Expression.Index index -> visitIndexExpression(index);
+            case Expression.Set set -> visitSetExpression(set);
+            case Expression.IndexSet indexSet -> visitIndexSetExpression(indexSet);
+            case Expression.This thisExpression -> visitThisExpression(thisExpression);
+            case Expression.Array array -> visitArrayExpression(array);
+            case Expression.Map map -> visitMapExpression(map);
+        };
+    }
+}
@@ -0,0 +1,14 @@
+package org.smithe65.jlox;
+
+import java.util.List;
+
+public class TailCall extends RuntimeException {
+    final LoxFunction function;
+    final List<Object> arguments;
+
+    TailCall(final LoxFunction function, final List<Object> arguments) {
+        super(null, null, false, false);
+        this.function = function;
+        this.arguments = arguments;
+    }
+}
@@ -6,6 +6,9 @@ public enum TokenType {
     RIGHT_PARENTHESIS,
     LEFT_BRACE,
     RIGHT_BRACE,
+    LEFT_BRACKET,
+    RIGHT_BRACKET,
+    COLON,
     COMMA,
     DOT,
     MINUS,
@@ -37,6 +40,7 @@ public enum TokenType {
     FUN,
     FOR,
     IF,
+    IMPORT,
     NIL,
     OR,
     PRINT,
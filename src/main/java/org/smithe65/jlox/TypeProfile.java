@@ -0,0 +1,20 @@
+package org.smithe65.jlox;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// Operand types seen while a hot loop runs the iteration that LoopTrace compiles from. Only
+// '+' needs watching: every other arithmetic or comparison operator only accepts numbers.
+final class TypeProfile {
+    private final Map<Expression.Binary, Boolean> additions = new IdentityHashMap<>();
+
+    void binary(Expression.Binary expression, Object left, Object right) {
+        if (expression.operator.type != TokenType.PLUS) return;
+        additions.merge(expression, left instanceof Double && right instanceof Double, Boolean::logicalAnd);
+    }
+
+    // Whether the addition ran while recording and only ever saw numbers.
+    boolean numeric(Expression.Binary expression) {
+        return additions.getOrDefault(expression, false);
+    }
+}
@@ -8,27 +8,40 @@ import java.util.List;
 
 public class GenerateAst {
 
+    // Sealed hierarchies let the interpreter switch over node types exhaustively. Nodes stay
+    // classes rather than records because later passes fill in fields after parsing.
+    private static boolean sealed = false;
+
     public static void main(String[] args) throws IOException {
 
+        if (args.length == 2 && args[0].equals("--sealed")) {
+            sealed = true;
+            args = Arrays.copyOfRange(args, 1, 2);
+        }
+
         if (args.length != 1) {
-            System.err.println("Usage: generate_ast <output directory>");
+            System.err.println("Usage: generate_ast [--sealed] <output directory>");
             System.exit(64);
         }
 
         String outputDir = args[0];
 
         defineAst(outputDir, "Expression", Arrays.asList(
-                "Assign   : Token name, Expression value",
+                "Array    : Token bracket, List<Expression> elements",
+                "Assign   : Token name, Expression value | int depth = -1, volatile long binding = 0",
                 "Binary   : Expression left, Token operator, Expression right",
-                "Call     : Expression callee, Token paren, List<Expression> arguments",
+                "Call     : Expression callee, Token paren, List<Expression> arguments | boolean tailCall = false, volatile long site = 0",
                 "Get      : Expression object, Token name",
                 "Grouping : Expression expression",
+                "Index    : Expression object, Token bracket, Expression index",
+                "IndexSet : Expression object, Token bracket, Expression index, Expression value",
                 "Literal  : Object value",
                 "Logical  : Expression left, Token operator, Expression right",
+                "Map      : Token brace, List<Expression> keys, List<Expression> values",
                 "Set      : Expression object, Token name, Expression value",
-                "This     : Token keyword",
+                "This     : Token keyword | int depth = -1",
                 "Unary    : Token operator, Expression right",
-                "Variable : Token name"
+                "Variable : Token name | int depth = -1, volatile long binding = 0"
         ));
 
         defineAst(outputDir, "Statement", Arrays.asList(
@@ -37,10 +50,11 @@ public class GenerateAst {
                 "Expression : org.smithe65.jlox.Expression expression",
                 "Function   : Token name, List<Token> parameters, List<Statement> body",
                 "If         : org.smithe65.jlox.Expression condition, Statement thenBranch, Statement elseBranch",
+                "Import     : Token keyword, Token path",
                 "Print      : org.smithe65.jlox.Expression expression",
                 "Return     : Token keyword, org.smithe65.jlox.Expression expression",
                 "Var        : Token name, org.smithe65.jlox.Expression initializer",
-                "While      : org.smithe65.jlox.Expression condition, Statement body"
+                "While      : Token keyword, org.smithe65.jlox.Expression condition, Statement body"
         ));
     }
 
@@ -54,14 +68,15 @@ public class GenerateAst {
         writer.println();
         writer.println("import java.util.List;");
         writer.println();
-        writer.println("public abstract class " + baseName + " {");
+        writer.println("public abstract " + (sealed ? "sealed " : "") + "class " + baseName + " {");
 
         defineVisitor(writer, baseName, types);
 
         for (String type : types) {
             String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String[] fields = type.split(":")[1].split("\\|");
+            String resolvedFields = fields.length > 1 ? fields[1].trim() : null;
+            defineType(writer, baseName, className, fields[0].trim(), resolvedFields);
         }
 
         writer.println();
@@ -73,9 +88,9 @@ public class GenerateAst {
 
     private static void defineType(
             PrintWriter writer, String baseName,
-            String className, String fieldList) {
+            String className, String fieldList, String resolvedFieldList) {
         System.out.println("*** Writing class " + className);
-        writer.println("  public static class " + className + " extends " +
+        writer.println("  public static " + (sealed ? "final " : "") + "class " + className + " extends " +
                 baseName + " {");
 
         // Constructor.
@@ -104,6 +119,13 @@ public class GenerateAst {
             writer.println("    final " + field + ";");
         }
 
+        // Fields after '|' are filled in by later passes rather than by the parser.
+        if (resolvedFieldList != null) {
+            for (String field : resolvedFieldList.split(", ")) {
+                writer.println("    " + field + ";");
+            }
+        }
+
         writer.println("  }");
     }
 
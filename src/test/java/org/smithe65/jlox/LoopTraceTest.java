@@ -0,0 +1,137 @@
+package org.smithe65.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoopTraceTest {
+    private record Run(String out, String err, Interpreter interpreter, Statement.While loop) {
+        LoopTrace.State state() {
+            return interpreter.loopState(loop);
+        }
+    }
+
+    // Runs a script whose first top-level while loop is the one under test.
+    private static Run run(String source, boolean traces) {
+        ErrorReporter reporter = new ErrorReporter();
+        List<Statement> statements = new Parser(new Scanner(source, reporter).scanTokens(), reporter, false).parse();
+        new Resolver(reporter).resolve(statements);
+        assertFalse(reporter.hadError(), () -> String.join("\n", reporter.errors()));
+
+        Interpreter interpreter = new Interpreter();
+        interpreter.setTraceLoops(traces);
+
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+        try {
+            System.setOut(new PrintStream(outBytes, true));
+            System.setErr(new PrintStream(errBytes, true));
+            interpreter.interpret(statements);
+        } finally {
+            System.setOut(out);
+            System.setErr(err);
+        }
+
+        Statement.While loop = statements.stream()
+                .filter(Statement.While.class::isInstance)
+                .map(Statement.While.class::cast)
+                .findFirst().orElseThrow();
+        return new Run(outBytes.toString(), errBytes.toString(), interpreter, loop);
+    }
+
+    // The trace has to leave no trace: a traced run prints what the tree prints.
+    private static Run runTraced(String source) {
+        Run tree = run(source, false);
+        Run traced = run(source, true);
+        assertEquals(tree.out(), traced.out());
+        assertEquals(tree.err(), traced.err());
+        return traced;
+    }
+
+    @Test
+    void tracesAreOffByDefault() {
+        String source = "var i = 0; while (i < 5000) i = i + 1; print i;";
+        Run run = run(source, false);
+
+        assertEquals("5000\n", run.out());
+        assertNull(run.state());
+    }
+
+    @Test
+    void switchesToTheTraceInTheMiddleOfTheLoop() {
+        int iterations = LoopTrace.HOT_LOOP + 10;
+        Run run = runTraced("var i = 0; var sum = 0;"
+                + " while (i < " + iterations + ") { sum = sum + i * 2; i = i + 1; }"
+                + " print sum;");
+
+        assertEquals((long)iterations * (iterations - 1) + "\n", run.out());
+        assertNotNull(run.state().trace);
+    }
+
+    @Test
+    void coldLoopsAreNotTraced() {
+        Run run = runTraced("var i = 0; while (i < " + (LoopTrace.HOT_LOOP - 1) + ") i = i + 1; print i;");
+
+        assertNull(run.state().trace);
+    }
+
+    @Test
+    void stringAdditionAfterNumericRecordingFallsBack() {
+        Run run = runTraced("var i = 0; var a = 1; var b = 2; var last = nil;"
+                + " while (i < 3000) { if (i == 2000) { a = \"x\"; b = \"y\"; } last = a + b; i = i + 1; }"
+                + " print last;");
+
+        assertEquals("xy\n", run.out());
+        // 1000 guard failures are within the limit, so the trace was kept.
+        assertNotNull(run.state().trace);
+    }
+
+    @Test
+    void guardFailureReportsTheSameErrorAsTheTree() {
+        Run run = runTraced("var i = 0; var limit = 3000;\n"
+                + "while (i < limit) { if (i == 2000) limit = \"z\"; i = i + 1; }\n"
+                + "print i;");
+
+        assertEquals("", run.out());
+        assertTrue(run.err().startsWith("Operands must be numbers."), run.err());
+    }
+
+    @Test
+    void tooManyGuardFailuresDropTheTrace() {
+        int failures = LoopTrace.MAX_GUARD_FAILURES + 100;
+        int iterations = 2000 + failures;
+        Run run = runTraced("var i = 0; var a = 1; var b = 2; var last = nil;"
+                + " while (i < " + iterations + ") { if (i == 2000) { a = \"x\"; b = \"y\"; } last = a + b; i = i + 1; }"
+                + " print last; print i;");
+
+        assertEquals("xy\n" + iterations + "\n", run.out());
+        assertNull(run.state().trace);
+        // Far enough below zero that the loop never gets hot again.
+        assertTrue(run.state().hotness < 0);
+    }
+
+    @Test
+    void nestedLoopsRunInsideTheTrace() {
+        Run run = runTraced("var total = 0; var i = 0;"
+                + " while (i < 2000) { var j = 0; while (j < 3) { total = total + j * i; j = j + 1; } i = i + 1; }"
+                + " print total;");
+
+        // The sum of j * i over both loops is 3 times the sum of i.
+        assertEquals(3L * 1999 * 2000 / 2 + "\n", run.out());
+        assertNotNull(run.state().trace);
+    }
+
+    @Test
+    void globalsDefinedInTheBodyAreInterpreted() {
+        Run run = runTraced("var i = 0;"
+                + " while (i < 3000) { var i2 = i * i; print i2 > 8994000; i = i + 1; }");
+
+        assertTrue(run.out().endsWith("true\n"));
+    }
+}
@@ -0,0 +1,97 @@
+package org.smithe65.jlox;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoxArrayTest {
+    private static final Token BRACKET = new Token(TokenType.LEFT_BRACKET, "[", null, 1);
+
+    private static Object call(LoxArray array, String method, Object... arguments) {
+        LoxCallable callable = (LoxCallable)array.get(new Token(TokenType.IDENTIFIER, method, null, 1));
+        return callable.call(new Interpreter(), List.of(arguments));
+    }
+
+    private static LoxArray numbers(int count) {
+        LoxArray array = new LoxArray(0);
+        for (int i = 0; i < count; i++) {
+            array.add((double)i);
+        }
+
+        return array;
+    }
+
+    @Test
+    void numbersStayNumbers() {
+        LoxArray array = numbers(20);
+
+        assertEquals(20, array.size());
+        assertEquals(7.0, array.get(7));
+        array.set(BRACKET, 3.0, -1.5);
+        assertEquals(-1.5, array.get(BRACKET, 3.0));
+    }
+
+    @Test
+    void storingAnObjectKeepsTheNumbersBeforeIt() {
+        LoxArray array = numbers(5);
+        array.set(BRACKET, 2.0, "two");
+
+        assertEquals("[0, 1, two, 3, 4]", array.toString());
+        assertEquals(4.0, array.get(4));
+
+        // Numbers stored after the switch are still numbers.
+        array.set(BRACKET, 0.0, 9.0);
+        assertEquals(9.0, array.get(0));
+    }
+
+    @Test
+    void addingAnObjectAtCapacityUpgradesAndGrows() {
+        LoxArray array = numbers(8);
+        array.add(null);
+        array.add(true);
+
+        assertEquals(10, array.size());
+        assertEquals("[0, 1, 2, 3, 4, 5, 6, 7, nil, true]", array.toString());
+
+        for (int i = 0; i < 20; i++) {
+            array.add((double)i);
+        }
+
+        assertEquals(30, array.size());
+        assertEquals(19.0, array.get(29));
+    }
+
+    @Test
+    void pushAndPopAfterTheUpgrade() {
+        LoxArray array = numbers(2);
+        call(array, "push", "x");
+        call(array, "push", 3.0);
+
+        assertEquals(3.0, call(array, "pop"));
+        assertEquals("x", call(array, "pop"));
+        assertEquals(1.0, call(array, "pop"));
+        assertEquals(1.0, array.get(new Token(TokenType.IDENTIFIER, "length", null, 1)));
+    }
+
+    @Test
+    void popFromEmptyArrayIsAnError() {
+        RuntimeError error = assertThrows(RuntimeError.class, () -> call(new LoxArray(0), "pop"));
+        assertEquals("Can't pop from an empty array.", error.getMessage());
+    }
+
+    @Test
+    void indexesAreChecked() {
+        LoxArray array = numbers(3);
+
+        assertEquals("Array index must be an integer.",
+                assertThrows(RuntimeError.class, () -> array.get(BRACKET, 1.5)).getMessage());
+        assertEquals("Array index must be an integer.",
+                assertThrows(RuntimeError.class, () -> array.get(BRACKET, "1")).getMessage());
+        assertEquals("Array index out of bounds.",
+                assertThrows(RuntimeError.class, () -> array.get(BRACKET, 3.0)).getMessage());
+        assertEquals("Array index out of bounds.",
+                assertThrows(RuntimeError.class, () -> array.set(BRACKET, -1.0, "x")).getMessage());
+    }
+}
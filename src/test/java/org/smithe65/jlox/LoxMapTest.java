@@ -0,0 +1,144 @@
+package org.smithe65.jlox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoxMapTest {
+    private static final Token BRACKET = new Token(TokenType.LEFT_BRACKET, "[", null, 1);
+
+    private static Object call(LoxMap map, String method, Object... arguments) {
+        LoxCallable callable = (LoxCallable)map.get(new Token(TokenType.IDENTIFIER, method, null, 1));
+        return callable.call(new Interpreter(), List.of(arguments));
+    }
+
+    private static void assertContainsExactly(Map<Object, Object> expected, LoxMap map) {
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Object, Object> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(BRACKET, entry.getKey()), () -> "key " + entry.getKey());
+        }
+
+        assertEquals(expected.size(), ((LoxArray)call(map, "keys")).size());
+    }
+
+    @Test
+    void setReplacesAndReportsNewKeys() {
+        LoxMap map = new LoxMap();
+
+        assertTrue(map.set(BRACKET, "a", 1.0));
+        assertFalse(map.set(BRACKET, "a", 2.0));
+        assertEquals(2.0, map.get(BRACKET, "a"));
+        assertEquals(1, map.size());
+        assertNull(map.get(BRACKET, "missing"));
+    }
+
+    @Test
+    void keysOfDifferentTypesStayApart() {
+        LoxMap map = new LoxMap();
+        map.set(BRACKET, 1.0, "number");
+        map.set(BRACKET, "1", "string");
+        map.set(BRACKET, true, "boolean");
+
+        assertEquals("number", map.get(BRACKET, 1.0));
+        assertEquals("string", map.get(BRACKET, "1"));
+        assertEquals("boolean", map.get(BRACKET, true));
+        assertEquals(3, map.size());
+    }
+
+    @Test
+    void concatenatedStringsMatchLiterals() {
+        LoxMap map = new LoxMap();
+        map.set(BRACKET, LoxString.concat("ke", "y"), 1.0);
+
+        assertEquals(1.0, map.get(BRACKET, "key"));
+        assertEquals(true, call(map, "has", LoxString.concat("k", "ey")));
+    }
+
+    @Test
+    void nilKeysAreRejected() {
+        RuntimeError error = assertThrows(RuntimeError.class, () -> new LoxMap().set(BRACKET, null, 1.0));
+        assertEquals("Map key can't be nil.", error.getMessage());
+    }
+
+    @Test
+    void resizeKeepsEveryEntry() {
+        LoxMap map = new LoxMap();
+        Map<Object, Object> expected = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            map.set(BRACKET, (double)i, "v" + i);
+            expected.put((double)i, "v" + i);
+
+            if (Integer.bitCount(i + 1) == 1) assertContainsExactly(expected, map);
+        }
+
+        assertContainsExactly(expected, map);
+    }
+
+    // Removing from a full probe run in every order checks that the entries after each hole
+    // are shifted back to where lookups still reach them.
+    @Test
+    void removalInEveryOrderKeepsTheRestReachable() {
+        List<Object> keys = List.of(0.0, 8.0, 16.0, "a", "b", -0.0);
+        permute(new ArrayList<>(keys), 0, order -> {
+            LoxMap map = new LoxMap();
+            Map<Object, Object> expected = new HashMap<>();
+            for (Object key : keys) {
+                map.set(BRACKET, key, key + "!");
+                expected.put(key, key + "!");
+            }
+
+            for (Object key : order) {
+                assertEquals(key + "!", call(map, "remove", key));
+                expected.remove(key);
+                assertContainsExactly(expected, map);
+                assertEquals(false, call(map, "has", key));
+            }
+        });
+    }
+
+    private interface Check {
+        void run(List<Object> order);
+    }
+
+    private static void permute(List<Object> items, int from, Check check) {
+        if (from == items.size()) {
+            check.run(items);
+            return;
+        }
+
+        for (int i = from; i < items.size(); i++) {
+            Collections.swap(items, from, i);
+            permute(items, from + 1, check);
+            Collections.swap(items, from, i);
+        }
+    }
+
+    @Test
+    void randomOperationsMatchHashMap() {
+        Random random = new Random(42);
+        LoxMap map = new LoxMap();
+        Map<Object, Object> expected = new HashMap<>();
+
+        for (int step = 0; step < 20000; step++) {
+            // A small key space keeps probe runs long and removals frequent.
+            Object key = random.nextBoolean() ? (double)random.nextInt(64) : "k" + random.nextInt(64);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), call(map, "remove", key));
+            } else {
+                assertEquals(!expected.containsKey(key), map.set(BRACKET, key, (double)step));
+                expected.put(key, (double)step);
+            }
+
+            assertEquals(expected.size(), map.size());
+        }
+
+        assertContainsExactly(expected, map);
+    }
+}
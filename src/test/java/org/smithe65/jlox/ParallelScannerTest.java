@@ -0,0 +1,90 @@
+package org.smithe65.jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelScannerTest {
+    private static ForkJoinPool pool;
+
+    @BeforeAll
+    static void startPool() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterAll
+    static void stopPool() {
+        pool.shutdown();
+    }
+
+    private static List<String> describe(List<Token> tokens) {
+        List<String> described = new ArrayList<>();
+        for (Token token : tokens) {
+            described.add(token + " @" + token.line);
+        }
+
+        return described;
+    }
+
+    // Every chunk size puts a boundary after every newline at some point, so this checks each
+    // line break of the source against the sequential scanner.
+    private static void assertScansLikeScanner(String source) {
+        ErrorReporter expectedErrors = new ErrorReporter();
+        List<String> expected = describe(new Scanner(source, expectedErrors).scanTokens());
+
+        for (int chunkSize = 1; chunkSize <= source.length(); chunkSize++) {
+            ErrorReporter errors = new ErrorReporter();
+            List<Token> tokens = new ParallelScanner(pool, chunkSize).scanTokens(source, errors);
+
+            int size = chunkSize;
+            assertEquals(expected, describe(tokens), () -> "chunk size " + size);
+            assertEquals(expectedErrors.errors(), errors.errors(), () -> "chunk size " + size);
+        }
+    }
+
+    @Test
+    void plainSource() {
+        assertScansLikeScanner("var a = 1;\nvar b = a + 2;\nprint a * b;\n");
+    }
+
+    @Test
+    void stringSpanningABoundary() {
+        assertScansLikeScanner("var s = \"one\ntwo\";\nprint s;\n");
+    }
+
+    @Test
+    void stringSpanningSeveralChunks() {
+        assertScansLikeScanner("print \"a\nb\nc\nd\ne\";\nvar after = 1;\n");
+    }
+
+    @Test
+    void commentMarkerInsideAString() {
+        assertScansLikeScanner("var s = \"start\n// not a comment\nend\";\nprint s; // a comment\n");
+    }
+
+    @Test
+    void quoteInsideAComment() {
+        assertScansLikeScanner("// it's \"quoted\nprint \"x\"; // and \" again\nvar y = 2;\n");
+    }
+
+    @Test
+    void stringThatLooksLikeCodeAfterABoundary() {
+        assertScansLikeScanner("var s = \"\nprint 1; var t = \";\nprint s;\n");
+    }
+
+    @Test
+    void unterminatedStringIsReportedOnce() {
+        assertScansLikeScanner("var a = 1;\nvar s = \"never\nclosed\n");
+    }
+
+    @Test
+    void sourceWithoutTrailingNewline() {
+        assertScansLikeScanner("var a = \"x\ny\";\nprint a;");
+    }
+}